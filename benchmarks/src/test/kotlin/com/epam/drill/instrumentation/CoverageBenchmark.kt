@@ -51,4 +51,14 @@ class CoverageBenchmark {
         }
     }
 
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Threads(Threads.MAX)
+    @Fork(value = 2, jvmArgsAppend = ["-Ddrill.probes.fast.mode=true"])
+    fun instrumentedClassFastModeTest() {
+        repeat(times) {
+            instrumentation.runInstrumentedClass()
+        }
+    }
+
 }
@@ -52,6 +52,21 @@ class BitSetComparisonBenchmark {
         probeBitSet1.merge(probeBitSet2)
     }
 
+    @Benchmark
+    fun bitSetMergeInPlace() {
+        probeBitSet1.copy().mergeInPlace(probeBitSet2)
+    }
+
+    @Benchmark
+    fun bitSetContains(): Boolean {
+        return true in probeBitSet1
+    }
+
+    @Benchmark
+    fun bitSetCovered(): Int {
+        return probeBitSet1.covered()
+    }
+
     @Benchmark
     fun boolListIntersect() {
         probe1.intersect(probe2)
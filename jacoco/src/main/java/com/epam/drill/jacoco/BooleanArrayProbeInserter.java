@@ -32,6 +32,12 @@ public class BooleanArrayProbeInserter extends MethodVisitor {
 
     private final IProbeArrayStrategy arrayStrategy;
 
+    /**
+     * <code>true</code> if the inserted variable holds the raw boolean[] and
+     * probes are stored straight into it, as upstream JaCoCo does.
+     */
+    private final boolean inlineProbes;
+
     /**
      * <code>true</code> if method is a class or interface initialization
      * method.
@@ -48,6 +54,12 @@ public class BooleanArrayProbeInserter extends MethodVisitor {
      */
     private int accessorStackSize;
 
+    /**
+     * Locals of the remapped frame, reused for all frames of the method since
+     * the method writer copies them.
+     */
+    private Object[] newLocal = new Object[0];
+
     /**
      * Creates a new {@link BooleanArrayProbeInserter}.
      *
@@ -60,7 +72,26 @@ public class BooleanArrayProbeInserter extends MethodVisitor {
      */
     public BooleanArrayProbeInserter(final int access, final String name, final String desc,
                                      final MethodVisitor mv, final IProbeArrayStrategy arrayStrategy) {
+        this(access, name, desc, mv, arrayStrategy, false);
+    }
+
+    /**
+     * Creates a new {@link BooleanArrayProbeInserter}.
+     *
+     * @param access        access flags of the adapted method
+     * @param name          the method's name
+     * @param desc          the method's descriptor
+     * @param mv            the method visitor to which this adapter delegates calls
+     * @param arrayStrategy callback to create the code that retrieves the reference to
+     *                      the probe array
+     * @param inlineProbes  if <code>true</code> the strategy stores a boolean[] and
+     *                      probes are inserted as a single array store
+     */
+    public BooleanArrayProbeInserter(final int access, final String name, final String desc,
+                                     final MethodVisitor mv, final IProbeArrayStrategy arrayStrategy,
+                                     final boolean inlineProbes) {
         super(InstrSupport.ASM_API_VERSION, mv);
+        this.inlineProbes = inlineProbes;
         //todo use const:
 //		this.clinit = InstrSupport.CLINIT_NAME.equals(name);
         this.clinit = "<clinit>".equals(name);
@@ -78,6 +109,24 @@ public class BooleanArrayProbeInserter extends MethodVisitor {
 
         mv.visitVarInsn(Opcodes.ALOAD, variable);
 
+        if (inlineProbes) {
+            // Stack[0]: [Z
+
+            InstrSupport.push(mv, id);
+
+            // Stack[1]: I
+            // Stack[0]: [Z
+
+            mv.visitInsn(Opcodes.ICONST_1);
+
+            // Stack[2]: I
+            // Stack[1]: I
+            // Stack[0]: [Z
+
+            mv.visitInsn(Opcodes.BASTORE);
+            return;
+        }
+
         // Stack[0]: $PROBE_IMPL
 
         InstrSupport.push(mv, id);
@@ -164,14 +213,15 @@ public class BooleanArrayProbeInserter extends MethodVisitor {
                     "ClassReader.accept() should be called with EXPAND_FRAMES flag");
         }
 
-        final Object[] newLocal = new Object[Math.max(nLocal, variable) + 1];
+        if (newLocal.length < Math.max(nLocal, variable) + 1) {
+            newLocal = new Object[Math.max(nLocal, variable) + 1];
+        }
         int idx = 0; // Arrays index for existing locals
         int newIdx = 0; // Array index for new locals
         int pos = 0; // Current variable position
         while (idx < nLocal || pos <= variable) {
             if (pos == variable) {
-//				newLocal[newIdx++] = InstrSupport.DATAFIELD_DESC;
-                newLocal[newIdx++] = PROBE_IMPL;
+                newLocal[newIdx++] = inlineProbes ? InstrSupport.DATAFIELD_DESC : PROBE_IMPL;
                 //TODO InstrSupport change value of constants to bitSet:
 //				InstrSupport.DATAFIELD_DESC;
 //  			InstrSupport.INITMETHOD_DESC
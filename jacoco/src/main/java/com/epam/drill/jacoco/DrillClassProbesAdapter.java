@@ -20,6 +20,8 @@ import org.jacoco.core.internal.instr.InstrSupport;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.commons.AnalyzerAdapter;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.MethodNode;
 
 /**
  * A {@link org.objectweb.asm.ClassVisitor} that calculates probes for every
@@ -85,7 +87,7 @@ public class DrillClassProbesAdapter extends ClassVisitor
 				LabelFlowAnalyzer.markLabels(this);
 				final MethodProbesAdapter probesAdapter = new MethodProbesAdapter(
 						methodProbes, DrillClassProbesAdapter.this);
-				if (trackFrames) {
+				if (trackFrames && needsFrames(this)) {
 					final AnalyzerAdapter analyzer = new AnalyzerAdapter(
 							DrillClassProbesAdapter.this.name, access, name, desc,
 							probesAdapter);
@@ -98,6 +100,34 @@ public class DrillClassProbesAdapter extends ClassVisitor
 		};
 	}
 
+	/**
+	 * Frames are only inserted for the probes of jumps and switches, so the
+	 * stack of the methods without them, e.g. getters and setters, is not
+	 * simulated by {@link AnalyzerAdapter}.
+	 *
+	 * @param method
+	 *            the buffered method
+	 * @return <code>true</code> if the method has branches, exception handlers
+	 *         or frames
+	 */
+	private static boolean needsFrames(final MethodNode method) {
+		if (!method.tryCatchBlocks.isEmpty()) {
+			return true;
+		}
+		for (final AbstractInsnNode insn : method.instructions) {
+			switch (insn.getType()) {
+			case AbstractInsnNode.JUMP_INSN:
+			case AbstractInsnNode.TABLESWITCH_INSN:
+			case AbstractInsnNode.LOOKUPSWITCH_INSN:
+			case AbstractInsnNode.FRAME:
+				return true;
+			default:
+				break;
+			}
+		}
+		return false;
+	}
+
 	@Override
 	public void visitEnd() {
 		cv.visitTotalProbeCount(counter);
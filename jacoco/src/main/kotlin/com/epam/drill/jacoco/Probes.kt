@@ -15,14 +15,34 @@
  */
 package com.epam.drill.jacoco
 
+import java.util.concurrent.atomic.*
+
+private const val DIRTY_PAGE_SHIFT = 12
+private const val DIRTY_PAGE_MASK = (1 shl DIRTY_PAGE_SHIFT) - 1
+private const val DIRTY_PAGE_WORDS = (1 shl DIRTY_PAGE_SHIFT) ushr 6
+
 open class AgentProbes(
     initialSize: Int = 0,
     val values: BooleanArray = BooleanArray(initialSize),
 ) {
+    private var dirtyClasses: DirtyClasses? = null
+
+    private var classIndex: Int = 0
+
+    /**
+     * Mark the class in [dirtyClasses] whenever a probe changes from false to true.
+     * Must be called before the probes are published to the instrumented code.
+     */
+    fun track(classIndex: Int, dirtyClasses: DirtyClasses) = apply {
+        this.classIndex = classIndex
+        this.dirtyClasses = dirtyClasses
+    }
 
     open fun set(index: Int) {
-        if (!values[index])
+        if (!values[index]) {
             values[index] = true
+            dirtyClasses?.mark(classIndex)
+        }
     }
 
     fun get(index: Int): Boolean {
@@ -41,3 +61,51 @@ class StubAgentProbes(size: Int = 0) : AgentProbes(size) {
     }
 
 }
+
+/**
+ * Lock-free bitmap of class indices whose probes were set since the last drain.
+ * Pages of 4096 bits are allocated on demand and never replaced, so a mark is never lost while the bitmap grows.
+ */
+class DirtyClasses {
+
+    @Volatile
+    private var pages = arrayOfNulls<AtomicLongArray>(1)
+
+    fun mark(index: Int) {
+        val page = page(index ushr DIRTY_PAGE_SHIFT)
+        val word = (index and DIRTY_PAGE_MASK) ushr 6
+        val bit = 1L shl index
+        while (true) {
+            val bits = page.get(word)
+            if (bits and bit != 0L || page.compareAndSet(word, bits, bits or bit)) return
+        }
+    }
+
+    /**
+     * Clear the bitmap and return the indices marked since the previous call
+     */
+    fun drain(): List<Int> = mutableListOf<Int>().apply {
+        pages.forEachIndexed { pageIndex, page ->
+            if (page != null) for (word in 0 until DIRTY_PAGE_WORDS) {
+                var bits = page.getAndSet(word, 0L)
+                while (bits != 0L) {
+                    add((pageIndex shl DIRTY_PAGE_SHIFT) + (word shl 6) + java.lang.Long.numberOfTrailingZeros(bits))
+                    bits = bits and (bits - 1)
+                }
+            }
+        }
+    }
+
+    private fun page(page: Int): AtomicLongArray = pages.takeIf { page < it.size }?.get(page) ?: allocate(page)
+
+    @Synchronized
+    private fun allocate(page: Int): AtomicLongArray {
+        val current = pages.takeIf { page < it.size } ?: pages.copyOf(maxOf(page + 1, pages.size * 2)).also {
+            pages = it
+        }
+        return current[page] ?: AtomicLongArray(DIRTY_PAGE_WORDS).also {
+            current[page] = it
+            pages = current //publish the new page
+        }
+    }
+}
@@ -17,6 +17,7 @@ package com.epam.drill.plugins.test2code
 
 import com.epam.drill.plugins.test2code.api.*
 import com.epam.drill.plugins.test2code.common.api.*
+import com.epam.drill.plugins.test2code.coverage.*
 import com.epam.drill.plugins.test2code.storage.*
 import com.epam.dsm.*
 import kotlinx.atomicfu.*
@@ -69,6 +70,8 @@ data class ClassData(
         private val emptyPackageTree = PackageTree()
     }
 
+    val coverageIndex: CoverageIndex by lazy { CoverageIndex(packageTree) }
+
     override fun equals(other: Any?) = other is ClassData && agentKey == other.agentKey
 
     override fun hashCode() = agentKey.hashCode()
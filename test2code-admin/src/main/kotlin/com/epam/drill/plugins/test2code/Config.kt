@@ -15,9 +15,19 @@
  */
 package com.epam.drill.plugins.test2code
 
+import com.epam.drill.plugins.test2code.util.*
+
 internal class RuntimeConfig(private val pluginId: String) {
     val realtime: Boolean = sysProp("features.realtime")?.toBoolean() ?: true
 
+    val incrementalCoverage: Boolean = sysProp("features.realtime.incremental")?.toBoolean() ?: true
+
+    /**
+     * The parallelism of the calculation of coverage by tests, it is calculated sequentially if it is 1
+     */
+    val bundleParallelism: Int = sysProp("bundle.parallelism")?.toIntOrNull()?.coerceAtLeast(1)
+        ?: maxOf(1, availableProcessors / 2)
+
     val sendPackages: Boolean = sysProp("send.packages")?.toBoolean() ?: true
 
     private fun sysProp(key: String): String? = System.getProperty("drill.plugins.$pluginId.$key")
@@ -26,6 +26,7 @@ import com.epam.dsm.*
 import com.epam.dsm.find.*
 import kotlinx.collections.immutable.*
 import java.io.*
+import java.util.concurrent.*
 import java.util.stream.*
 
 private val logger = logger {}
@@ -35,12 +36,14 @@ private val logger = logger {}
  * @param context the build context
  * @param classBytes java class bytes of the build
  * @param cache the current cache of build coverage
+ * @param pool the pool for the calculation of coverage by tests, it is calculated sequentially if null
  * @return various sets of build coverages
  * @features Scope finishing
  */
 internal fun Sequence<Session>.calcBundleCounters(
     context: CoverContext,
     cache: Map<TestKey, BundleCounter> = emptyMap(),
+    pool: ForkJoinPool? = null,
 ) = run {
     logger.trace {
         "CalcBundleCounters for ${context.build.agentKey} sessions(size=${this.toList().size}, ids=${
@@ -65,23 +68,54 @@ internal fun Sequence<Session>.calcBundleCounters(
         byTestType = probesByTestType.mapValues {
             it.value.asSequence().flatten().bundle(context)
         },
-        byTest = trackTime("bundlesByTests") { probesByTestType.bundlesByTests(context, cache) },
-        byTestOverview = fold(mutableMapOf()) { map, session ->
-            session.tests.forEach { overview ->
-                val testKey = TestKey(id = overview.testId, type = session.testType)
-                map[testKey] = map[testKey]?.run {
-                    copy(
-                        duration = duration + overview.duration,
-                        result = overview.result,
-                        details = overview.details.copy(labels = overview.details.labels + details.labels)
-                    )
-                } ?: overview
-            }
-            map
-        },
+        byTest = trackTime("bundlesByTests") { probesByTestType.bundlesByTests(context, cache, pool) },
+        byTestOverview = testOverviews(),
+    )
+}
+
+/**
+ * Calculate build coverage counters of the active scope.
+ * The counters except the coverage by tests are maintained incrementally by the accumulator.
+ * @param context the build context
+ * @param cache the current cache of build coverage
+ * @param accumulator the coverage accumulator of the scope
+ * @param generation the generation of the accumulator taken before the sessions
+ * @param pool the pool for the calculation of coverage by tests, it is calculated sequentially if null
+ * @return various sets of build coverages
+ * @features Sending coverage data
+ */
+internal fun Sequence<Session>.calcBundleCounters(
+    context: CoverContext,
+    cache: Map<TestKey, BundleCounter>,
+    accumulator: CoverageAccumulator,
+    generation: Int,
+    pool: ForkJoinPool? = null,
+): BundleCounters = run {
+    val accumulated = trackTime("accumulatedBundle") { accumulator.update(context, this, generation) }
+    BundleCounters(
+        all = accumulated.all,
+        testTypeOverlap = accumulated.testTypeOverlap,
+        overlap = accumulated.overlap,
+        byTestType = accumulated.byTestType,
+        byTest = trackTime("bundlesByTests") { groupBy(Session::testType).bundlesByTests(context, cache, pool) },
+        byTestOverview = testOverviews(),
     )
 }
 
+private fun Sequence<Session>.testOverviews(): Map<TestKey, TestOverview> = fold(mutableMapOf()) { map, session ->
+    session.tests.forEach { overview ->
+        val testKey = TestKey(id = overview.testId, type = session.testType)
+        map[testKey] = map[testKey]?.run {
+            copy(
+                duration = duration + overview.duration,
+                result = overview.result,
+                details = overview.details.copy(labels = overview.details.labels + details.labels)
+            )
+        } ?: overview
+    }
+    map
+}
+
 /**
  * Calculate build coverage counters by filtered tests
  * @param context the build context
@@ -228,24 +262,56 @@ internal fun Map<String, BundleCounter>.coveragesByTestType(
 private fun Map<String, List<Session>>.bundlesByTests(
     context: CoverContext,
     cache: Map<TestKey, BundleCounter>,
+    pool: ForkJoinPool?,
 ): Map<TestKey, BundleCounter> = run {
     val bundleByTests = values.asSequence().flatten().testsWithBundle()
     bundleByTests.putAll(cache)
-    map { (testType, sessions: List<Session>) ->
+    val probesByTests = map { (testType, sessions: List<Session>) ->
         sessions.asSequence().flatten()
             .mapNotNull { execData ->
                 execData.testId.testKey(testType).takeIf { it !in cache }?.to(execData)
             }
             .groupBy(Pair<TestKey, ExecClassData>::first) { it.second }
-            .mapValuesTo(bundleByTests) {
-                it.value.asSequence().bundle(context)
-            }
     }.takeIf { it.isNotEmpty() }?.reduce { m1, m2 ->
-        m1.apply { putAll(m2) }
-    }
+        m1 + m2
+    } ?: emptyMap()
+    bundleByTests.putAll(probesByTests.bundles(context.coverageIndex, pool))
     bundleByTests
 }
 
+/**
+ * Calculate the bundles of the tests in the pool if it is given and there are several tests.
+ * The buffers of the calculation are reused by the workers for all the tests.
+ * The calling thread, e.g. of [AsyncJobDispatcher], waits for the pool just as it runs the sequential calculation,
+ * the handoff is not suspending since the counters are calculated by non-suspending functions.
+ * A failure of the calculation is rethrown as is, not wrapped in [ExecutionException].
+ */
+private fun Map<TestKey, List<ExecClassData>>.bundles(
+    index: CoverageIndex,
+    pool: ForkJoinPool?,
+): Map<TestKey, BundleCounter> = if (pool != null && size > 1) {
+    //buffers are returned after each test, so there are no more of them than the workers
+    val scratches = ConcurrentLinkedQueue<BundleScratch>()
+    try {
+        pool.submit(Callable {
+            entries.parallelStream().collect(
+                Collectors.toMap({ it.key }, { (_, probes) ->
+                    val scratch = scratches.poll() ?: BundleScratch(index)
+                    try {
+                        probes.asSequence().bundle(index, scratch)
+                    } finally {
+                        scratches.add(scratch)
+                    }
+                })
+            )
+        }).get()
+    } catch (e: ExecutionException) {
+        throw e.cause ?: e
+    }
+} else BundleScratch(index).let { scratch ->
+    mapValues { it.value.asSequence().bundle(index, scratch) }
+}
+
 private fun Sequence<Session>.testsWithBundle(
 ): MutableMap<TestKey, BundleCounter> = flatMap { session ->
     session.tests.map { it.testId.testKey(session.testType) }.asSequence()
@@ -275,7 +341,7 @@ internal fun Sequence<ExecClassData>.overlappingBundle(
  */
 internal fun Sequence<ExecClassData>.bundle(
     context: CoverContext,
-): BundleCounter = bundle(context.packageTree)
+): BundleCounter = bundle(context.coverageIndex)
 
 internal fun BundleCounters.associatedTests(
     onlyPackages: Boolean = true,
@@ -128,7 +128,7 @@ private fun List<JavaClassCoverage>.classCoverage(
                 coveredMethodsCount = methods.count { it.count.covered > 0 },
                 assocTestsCount = assocTestsMap[coverageKey()]?.count() ?: 0,
                 methods = toMethodCoverage(assocTestsMap, classCov.methods),
-                probes = probes,
+                probes = probes.toList(),
             )
         } ?: classCov
     }
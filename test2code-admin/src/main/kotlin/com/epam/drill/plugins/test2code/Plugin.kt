@@ -45,6 +45,19 @@ internal object AsyncJobDispatcher : CoroutineScope {
         Executors.newFixedThreadPool(availableProcessors).asCoroutineDispatcher() + SupervisorJob()
 }
 
+private val bundlePools = ConcurrentHashMap<Int, ForkJoinPool>()
+
+/**
+ * Pool for the calculation of coverage by tests, shared by the plugins with the same parallelism.
+ * It is separate from [AsyncJobDispatcher], so the workers do not occupy the threads of the plugin jobs.
+ * Like [AsyncJobDispatcher], the pools live as long as the process and are not shut down on plugin close,
+ * since other plugins may use them. There is one pool per parallelism, and its workers are daemon threads
+ * which are released when idle.
+ */
+internal fun bundlePool(parallelism: Int): ForkJoinPool = bundlePools.getOrPut(parallelism) {
+    ForkJoinPool(parallelism)
+}
+
 /**
  * The all information related to the plugin
  *
@@ -79,6 +92,8 @@ class Plugin(
 
     internal val runtimeConfig = RuntimeConfig(id)
 
+    internal val bundlePool: ForkJoinPool? = runtimeConfig.bundleParallelism.takeIf { it > 1 }?.let(::bundlePool)
+
     internal val state: AgentState get() = _state.value!!
 
     val activeScope: ActiveScope get() = state.activeScope
@@ -87,6 +102,8 @@ class Plugin(
 
     private val _state = atomic<AgentState?>(null)
 
+    private val binaryProbesDecoder = BinaryProbesDecoder()
+
     /**
      * Initialize the plugin state
      * @features Agent registration
@@ -316,14 +333,20 @@ class Plugin(
         instanceId: String,
         content: String,
     ): Any = run {
-        val message = if (content.isJson())
-            json.decodeFromString(CoverMessage.serializer(), content)
-        else {
-            val decode = Base64.getDecoder().decode(content)
-            val decompress = Zstd.decompress(decode, Zstd.decompressedSize(decode).toInt())
-            ProtoBuf.decodeFromByteArray(CoverMessage.serializer(), decompress)
-        }
-        processData(instanceId, message)
+        val message = when {
+            content.isJson() -> json.decodeFromString(CoverMessage.serializer(), content)
+            content.isBinaryProbes() -> binaryProbesDecoder.decode(instanceId, content)
+            content.isAgentStatus() -> {
+                logger.info { "$instanceId: ${content.substring(1)}" }
+                null
+            }
+            else -> {
+                val decode = Base64.getDecoder().decode(content)
+                val decompress = Zstd.decompress(decode, Zstd.decompressedSize(decode).toInt())
+                ProtoBuf.decodeFromByteArray(CoverMessage.serializer(), decompress)
+            }
+        }
+        message?.let { processData(instanceId, it) }
             .let { "" } //TODO eliminate magic empty strings from API
     }
 
@@ -353,8 +376,12 @@ class Plugin(
          */
         is SessionStarted -> logger.info { "$instanceId: Agent session ${message.sessionId} started." }
             .also { logPoolStats() }
-        is SessionCancelled -> logger.info { "$instanceId: Agent session ${message.sessionId} cancelled." }
+        is SessionCancelled -> {
+            binaryProbesDecoder.release(instanceId, message.sessionId)
+            logger.info { "$instanceId: Agent session ${message.sessionId} cancelled." }
+        }
         is SessionsCancelled -> message.run {
+            ids.forEach { binaryProbesDecoder.release(instanceId, it) }
             activeScope.let { ids.forEach { id: String -> it.cancelSession(id) } }
             logger.info { "$instanceId: Agent sessions cancelled: $ids." }
         }
@@ -373,13 +400,17 @@ class Plugin(
          */
         is SessionFinished -> {
             delay(500L) //TODO remove after multi-instance core is implemented
+            binaryProbesDecoder.release(instanceId, message.sessionId)
             state.finishSession(message.sessionId) ?: logger.info {
                 "$instanceId: No active session with id ${message.sessionId}."
             }
         }
         is SessionsFinished -> {
             delay(500L) //TODO remove after multi-instance core is implemented
-            message.ids.forEach { state.finishSession(it) }
+            message.ids.forEach {
+                binaryProbesDecoder.release(instanceId, it)
+                state.finishSession(it)
+            }
         }
         //TODO EPMDJ-10398 send on agent attach
         /**
@@ -484,7 +515,7 @@ class Plugin(
         val coverContext = state.coverContext()
         build.bundleCounters.calculateAndSendBuildCoverage(coverContext, build.stats.scopeCount)
         scopes.forEach { scope ->
-            val bundleCounters = scope.calcBundleCounters(coverContext)
+            val bundleCounters = scope.calcBundleCounters(coverContext, pool = bundlePool)
             val coverageInfoSet = bundleCounters.calculateCoverageData(coverContext, scope)
             coverageInfoSet.sendScopeCoverage(buildVersion, scope.id)
             bundleCounters.assocTestsJob(scope)
@@ -625,7 +656,7 @@ class Plugin(
     private suspend fun Sequence<FinishedScope>.calculateAndSendBuildCoverage(context: CoverContext) {
         state.updateProbes(this)
         logger.debug { "Start to calculate BundleCounters of build" }
-        val bundleCounters = flatten().calcBundleCounters(context)
+        val bundleCounters = flatten().calcBundleCounters(context, pool = bundlePool)
         state.updateBundleCounters(bundleCounters)
         logger.debug { "Start to calculate build coverage" }
         bundleCounters.calculateAndSendBuildCoverage(context, scopeCount = count())
@@ -791,7 +822,7 @@ class Plugin(
      */
     internal suspend fun calculateAndSendScopeCoverage() = activeScope.let { scope ->
         val context = state.coverContext()
-        val bundleCounters = scope.calcBundleCounters(context)
+        val bundleCounters = scope.calcBundleCounters(context, pool = bundlePool)
         val coverageInfoSet = bundleCounters.calculateCoverageData(context, scope)
         activeScope.updateSummary {
             it.copy(coverage = coverageInfoSet.coverage as ScopeCoverage)
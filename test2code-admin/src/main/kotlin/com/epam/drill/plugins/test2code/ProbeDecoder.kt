@@ -0,0 +1,171 @@
+/**
+ * Copyright 2020 - 2022 EPAM Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.epam.drill.plugins.test2code
+
+import com.epam.drill.plugins.test2code.common.api.*
+import com.epam.dsm.util.*
+import com.github.luben.zstd.*
+import java.io.*
+import java.util.*
+import java.util.concurrent.*
+import java.util.zip.*
+
+/**
+ * First character of the binary coverage message sent by the agent instead of ProtoBuf encoded [CoverDataPart]
+ */
+internal const val BINARY_PROBES_MARKER = '~'
+
+/**
+ * Header of the binary coverage message, it is followed by the flags of the message and the Zstd compressed part
+ */
+internal val BINARY_PROBES_HEADER = byteArrayOf(0, 'D'.code.toByte(), 'P'.code.toByte(), 1)
+
+/**
+ * Header of the message which registers a dictionary, it is followed by the dictionary content
+ */
+internal val BINARY_DICTIONARY_HEADER = byteArrayOf(0, 'D'.code.toByte(), 'D'.code.toByte(), 1)
+
+/**
+ * The message is compressed with a dictionary, the flags are followed by the dictionary id
+ */
+internal const val PROBES_DICTIONARY = 1
+
+/**
+ * Classes and tests of the message are references to the names registered in the previous messages of the session
+ */
+internal const val PROBES_INTERNED = 2
+
+internal fun String.isBinaryProbes(): Boolean = startsWith(BINARY_PROBES_MARKER)
+
+/**
+ * Decoder of the binary coverage messages of an agent.
+ * Keeps the Zstd dictionaries registered by the agent, they are identified by CRC32 of the content,
+ * and the class and test names registered in the coverage messages.
+ * Class names are keyed by the class id and shared by the agent instances,
+ * while every instance numbers the tests of a session on its own, so the test names are kept per instance.
+ */
+internal class BinaryProbesDecoder {
+    private val dictionaries = ConcurrentHashMap<Int, ZstdDictDecompress>()
+
+    private val classNames = ConcurrentHashMap<Long, String>()
+
+    private val tests = ConcurrentHashMap<Pair<String, String>, MutableMap<Int, Pair<String, String>>>()
+
+    /**
+     * Decode the binary message as a stream: Base64 and Zstd are decoded on the fly from the string,
+     * probes of a class are read in place of the packed bytes without a per-probe loop.
+     * @param instanceId the agent instance which has sent the message
+     * @param content the message
+     * @return the coverage or null if the message registers a dictionary
+     * @features Coverage data sending
+     */
+    fun decode(instanceId: String, content: String): CoverDataPart? = Base64.getDecoder().wrap(
+        StringInputStream(content, 1)
+    ).let { input ->
+        val header = DataInputStream(input)
+        val type = ByteArray(BINARY_PROBES_HEADER.size).also(header::readFully)
+        when {
+            type.contentEquals(BINARY_PROBES_HEADER) -> {
+                val flags = header.readByte().toInt()
+                val compressed = ZstdInputStream(input)
+                if (flags and PROBES_DICTIONARY != 0) {
+                    val id = header.readInt()
+                    compressed.setDict(checkNotNull(dictionaries[id]) { "Unknown coverage dictionary $id" })
+                }
+                DataInputStream(BufferedInputStream(compressed)).use {
+                    if (flags and PROBES_INTERNED != 0) it.readInterned(instanceId) else it.readCoverDataPart()
+                }
+            }
+            type.contentEquals(BINARY_DICTIONARY_HEADER) -> {
+                register(input.readBytes())
+                null
+            }
+            else -> throw IllegalArgumentException("Unsupported binary coverage message")
+        }
+    }
+
+    /**
+     * Drop the test names of the session finished or cancelled by the agent instance
+     */
+    fun release(instanceId: String, sessionId: String) {
+        tests.remove(instanceId to sessionId)
+    }
+
+    private fun register(bytes: ByteArray) {
+        val id = CRC32().apply { update(bytes) }.value.toInt()
+        dictionaries[id] = ZstdDictDecompress(bytes)
+    }
+
+    /**
+     * Read the names registered by the message, then the classes referring to them.
+     * The names are interned once on registration instead of every class of every message.
+     */
+    private fun DataInputStream.readInterned(instanceId: String): CoverDataPart {
+        val sessionId = readUTF()
+        repeat(readInt()) {
+            classNames[readLong()] = readUTF().weakIntern()
+        }
+        val sessionTests = tests.getOrPut(instanceId to sessionId) { ConcurrentHashMap() }
+        repeat(readInt()) {
+            sessionTests[readInt()] = readUTF().weakIntern() to readUTF().weakIntern()
+        }
+        val data = List(readInt()) {
+            val id = readLong()
+            val test = readInt()
+            val (testName, testId) = checkNotNull(sessionTests[test]) { "Unknown test $test of session $sessionId" }
+            ExecClassData(
+                id = id,
+                className = checkNotNull(classNames[id]) { "Unknown class $id" },
+                probes = readProbes(),
+                testName = testName,
+                testId = testId,
+            )
+        }
+        return CoverDataPart(sessionId, data)
+    }
+}
+
+private fun DataInputStream.readCoverDataPart(): CoverDataPart {
+    val sessionId = readUTF()
+    val data = List(readInt()) {
+        val id = readLong()
+        val className = readUTF()
+        val testName = readUTF()
+        val testId = readUTF()
+        ExecClassData(
+            id = id,
+            className = className,
+            probes = readProbes(),
+            testName = testName,
+            testId = testId,
+        )
+    }
+    return CoverDataPart(sessionId, data)
+}
+
+private fun DataInputStream.readProbes(): BitSet = BitSet.valueOf(ByteArray(readInt() / 8 + 1).also(::readFully))
+
+/**
+ * Reads the characters of an ASCII string as bytes without copying the string
+ */
+private class StringInputStream(
+    private val string: String,
+    private var position: Int,
+) : InputStream() {
+    override fun read(): Int = if (position < string.length) string[position++].code else -1
+
+    override fun available(): Int = string.length - position
+}
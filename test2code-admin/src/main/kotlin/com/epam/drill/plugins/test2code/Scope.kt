@@ -40,7 +40,7 @@ fun Sequence<Scope>.summaries(): List<ScopeSummary> = map(Scope::summary).toList
 
 typealias SoftBundleByTests = SoftReference<PersistentMap<TestKey, BundleCounter>>
 
-typealias CoverageHandler = suspend ActiveScope.(Boolean, Sequence<Session>?) -> Unit
+typealias CoverageHandler = suspend ActiveScope.(Boolean, Sequence<Session>?, Int) -> Unit
 
 typealias BundleCacheHandler = suspend ActiveScope.(Map<TestKey, Sequence<ExecClassData>>) -> Unit
 
@@ -66,6 +66,11 @@ class ActiveScope(
     val bundleByTests: PersistentMap<TestKey, BundleCounter>
         get() = _bundleByTests.value.get() ?: persistentMapOf()
 
+    /**
+     * Coverage counters of the finished and realtime sessions
+     */
+    internal val coverageAccumulator = CoverageAccumulator()
+
     private enum class Change(val sessions: Boolean, val probes: Boolean) {
         ONLY_SESSIONS(true, false),
         ONLY_PROBES(false, true),
@@ -103,10 +108,12 @@ class ActiveScope(
                 delay(250)
                 _change.getAndUpdate { null }?.let { change ->
                     _realtimeCoverageHandler.value?.let { handler ->
+                        //taken before the sessions, so a session cancelled meanwhile resets the counters again
+                        val generation = coverageAccumulator.generation
                         val probes = if (change.probes) {
                             this@ActiveScope + activeSessions.values.filter { it.isRealtime }
                         } else null
-                        handler(change.sessions, probes)
+                        handler(change.sessions, probes, generation)
                         delay(500)
                     }
                 }
@@ -197,7 +204,11 @@ class ActiveScope(
     fun addProbes(
         sessionId: String,
         probeProvider: () -> Collection<ExecClassData>,
-    ): ActiveSession? = activeSessionOrNull(sessionId)?.apply { addAll(probeProvider()) }
+    ): ActiveSession? = activeSessionOrNull(sessionId)?.apply {
+        val probes = probeProvider()
+        addAll(probes)
+        if (isRealtime) coverageAccumulator.add(testType, probes)
+    }
 
     fun addBundleCache(bundleByTests: Map<TestKey, BundleCounter>) {
         _bundleByTests.update {
@@ -218,6 +229,7 @@ class ActiveScope(
     ): ActiveSession? = removeSession(sessionId)?.also {
         clearBundleCache()
         if (it.any()) {
+            if (it.isRealtime) coverageAccumulator.reset()
             _change.value = Change.ALL
         } else sessionsChanged()
     }
@@ -225,6 +237,7 @@ class ActiveScope(
     fun cancelAllSessions() = activeSessions.clear().also { map ->
         clearBundleCache()
         if (map.values.any { it.any() }) {
+            coverageAccumulator.reset()
             _change.value = Change.ALL
         } else sessionsChanged()
     }
@@ -240,6 +253,7 @@ class ActiveScope(
     ): FinishedSession? = removeSession(sessionId)?.run {
         finish().also { finished ->
             if (finished.probes.any()) {
+                if (!isRealtime) coverageAccumulator.add(testType, finished.probes)
                 val updatedSessions = _sessions.updateAndGet { it.apply { add(finished) } }
                 _bundleByTests.update {
                     val current = it.get() ?: persistentMapOf()
@@ -262,6 +276,7 @@ class ActiveScope(
         logger.debug { "closing active scope $id..." }
         _change.value = null
         activeSessions.clear()
+        coverageAccumulator.reset()
         realtimeCoverageJob.cancel()
         bundleCacheJob.cancel()
     }
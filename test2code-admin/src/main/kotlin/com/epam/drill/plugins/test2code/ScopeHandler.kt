@@ -27,14 +27,16 @@ import com.epam.dsm.util.*
  * Initialize periodic job to recalculate coverage data and send it to the UI
  * @features Session starting, Session finishing, Sending coverage data, Scope finishing
  */
-internal fun Plugin.initActiveScope(): Boolean = activeScope.initRealtimeHandler { sessionChanged, sessions ->
+internal fun Plugin.initActiveScope(): Boolean = activeScope.initRealtimeHandler { sessionChanged, sessions, generation ->
     if (sessionChanged) {
         sendActiveSessions()
     }
     sessions?.let {
         val context = state.coverContext()
         val bundleCounters = trackTime("bundleCounters") {
-            sessions.calcBundleCounters(context, bundleByTests)
+            if (runtimeConfig.incrementalCoverage) {
+                sessions.calcBundleCounters(context, bundleByTests, coverageAccumulator, generation, bundlePool)
+            } else sessions.calcBundleCounters(context, bundleByTests, bundlePool)
         }.also { logPoolStats() }
         val coverageInfoSet = trackTime("coverageInfoSet") {
             bundleCounters.calculateCoverageData(context, this)
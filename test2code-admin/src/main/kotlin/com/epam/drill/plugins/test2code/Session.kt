@@ -98,31 +98,42 @@ class ActiveSession(
 
     /**
      * Add and merge new probes with current
+     * The probes may be deltas sent by the agent in the delta mode, merging adds them to the previous ones
      * @param dataPart a collection of new probes
      * @features Sending coverage data
      */
-    fun addAll(dataPart: Collection<ExecClassData>) = dataPart.map { probe ->
-        probe.id?.let { probe } ?: probe.copy(id = probe.id())
-    }.forEach { probe ->
-        if (true in probe.probes) {
-            val test = probe.testId.weakIntern() to probe.testName.weakIntern()
-            _probes.update { map ->
-                (map[test] ?: persistentHashMapOf()).let { testData ->
-                    val probeId = probe.id()
-                    if (probeId in testData) {
-                        testData.getValue(probeId).run {
-                            val merged = probes.merge(probe.probes)
-                            merged.takeIf { it != probes }?.let {
-                                addUpdatedTest(probe.testId)
-                                testData.put(probeId, copy(probes = merged))
-                            }
-                        }
-                    } else testData.put(probeId, probe).also { addUpdatedTest(probe.testId) }
-                }?.let { map.put(test, it) } ?: map
+    fun addAll(dataPart: Collection<ExecClassData>) {
+        var lastTest: Pair<String, String>? = null
+        dataPart.map { probe ->
+            probe.id?.let { probe } ?: probe.copy(id = probe.id())
+        }.forEach { probe ->
+            if (true in probe.probes) {
+                //classes of a message mostly belong to the same test, intern its names once
+                val test = lastTest?.takeIf { (testId, testName) ->
+                    testId == probe.testId && testName == probe.testName
+                } ?: (probe.testId.weakIntern() to probe.testName.weakIntern()).also { lastTest = it }
+                addProbe(test, probe)
             }
         }
     }
 
+    private fun addProbe(test: Pair<String, String>, probe: ExecClassData) {
+        _probes.update { map ->
+            (map[test] ?: persistentHashMapOf()).let { testData ->
+                val probeId = probe.id()
+                if (probeId in testData) {
+                    testData.getValue(probeId).run {
+                        val merged = probes.merge(probe.probes)
+                        merged.takeIf { it != probes }?.let {
+                            addUpdatedTest(probe.testId)
+                            testData.put(probeId, copy(probes = merged))
+                        }
+                    }
+                } else testData.put(probeId, probe).also { addUpdatedTest(probe.testId) }
+            }?.let { map.put(test, it) } ?: map
+        }
+    }
+
     private fun addUpdatedTest(testId: String) {
         if (testId in _testTestInfo.value) _updatedTests.update { it + testId }
     }
@@ -153,7 +153,8 @@ internal class AgentState(
             packageTree = classData.packageTree,
             methods = classData.methods,
             probeIds = classData.probeIds,
-            build = build
+            build = build,
+            coverageIndex = classData.coverageIndex,
         )
         _coverContext.value = coverContext
         updateProbes(probes)
@@ -17,80 +17,46 @@ package com.epam.drill.plugins.test2code.coverage
 
 import com.epam.drill.plugins.test2code.api.*
 import com.epam.drill.plugins.test2code.common.api.*
-import com.epam.drill.plugins.test2code.util.*
-import com.epam.dsm.util.*
 
 /**
  * Calculate a build coverage for non java agents
- * @param tree the tree of application packages
+ * @param index the index of application classes
+ * @param scratch the buffers of the calculation, they are cleared after it
  * @return a calculated build coverage
  * @features Scope finishing
  */
 internal fun Sequence<ExecClassData>.bundle(
-    tree: PackageTree
-): BundleCounter = run {
-    val probeCounts: Map<String, Int> = tree.packages.run {
-        flatMap { it.classes }.associateBy({ fullClassname(it.path, it.name) }) { it.totalCount }
+    index: CoverageIndex,
+    scratch: BundleScratch = BundleScratch(index),
+): BundleCounter = try {
+    forEach { data ->
+        val ordinal = index.ordinal(data.className)
+        if (ordinal >= 0) scratch.add(ordinal, data.probes)
     }
-    val probesByClasses: Map<String, List<Boolean>> = filter {
-        it.className in probeCounts
-    }.groupBy(ExecClassData::className).mapValues { (className, execDataList) ->
-        val initialProbe = BooleanArray(probeCounts.getValue(className)) { false }.toList()
-        execDataList.map(ExecClassData::probes).fold(initialProbe) { acc, probes ->
-            acc.merge(probes.toList())
-        }
-    }
-    val classMethods = tree.packages.flatMap { it.classes }.associate {
-        fullClassname(it.path, it.name) to it.methods
-    }
-    val covered = probesByClasses.values.sumBy { probes -> probes.count { it } }
-    val packages = probesByClasses.keys.groupBy { classPath(it) }.map { (pkgName, classNames) ->
-        val classes = classNames.map { fullClassname ->
-            val probes = probesByClasses.getValue(fullClassname)
-            ClassCounter(
-                path = pkgName.weakIntern(),
-                name = classname(fullClassname),
-                count = probes.toCount(),
-                fullName = fullClassname,
-                probes = probes,
-                methods = classMethods.getValue(fullClassname).map {
-                    val methodProbes = probes.slice(it.probeRange)
-                    val sign = signature(fullClassname, it.name, it.desc)
-                    MethodCounter(
-                        it.name, it.desc, it.decl,
-                        sign = sign,
-                        fullName = fullMethodName(fullClassname, it.name, it.desc),
-                        count = methodProbes.toCount()
-                    )
-                }
-            )
-        }
-        PackageCounter(
-            name = pkgName,
-            count = classNames.flatMap { probesByClasses[it] ?: emptyList() }.toCount(),
-            classCount = Count(
-                classNames.count { name -> probesByClasses.getValue(name).any { it } },
-                classNames.size
-            ),
-            methodCount = Count(
-                classes.sumOf { c -> c.methods.count { it.count.covered > 0 } },
-                classes.sumOf { it.methods.count() }
-            ),
-            classes = classes
-        )
-    }
-    BundleCounter(
-        name = "",
-        count = Count(covered, tree.totalCount),
-        methodCount = packages.run {
-            Count(sumOf { it.methodCount.covered }, sumOf { it.methodCount.total })
-        },
-        classCount = packages.run {
-            Count(sumOf { it.classCount.covered }, sumOf { it.classCount.total })
-        },
-        packageCount = packages.run {
-            Count(count { it.classCount.covered > 0 }, count())
-        },
-        packages = packages
-    )
+    index.bundle(scratch)
+} finally {
+    scratch.clear()
 }
+
+internal fun List<ClassCounter>.toPackageCounter(pkgName: String) = PackageCounter(
+    name = pkgName,
+    count = Count(sumOf { it.count.covered }, sumOf { it.count.total }),
+    classCount = Count(
+        count { true in it.probes },
+        size
+    ),
+    methodCount = Count(
+        sumOf { c -> c.methods.count { it.count.covered > 0 } },
+        sumOf { it.methods.count() }
+    ),
+    classes = this
+)
+
+internal fun List<PackageCounter>.toBundleCounter(tree: PackageTree) = BundleCounter(
+    name = "",
+    count = Count(sumOf { it.count.covered }, tree.totalCount),
+    methodCount = Count(sumOf { it.methodCount.covered }, sumOf { it.methodCount.total }),
+    classCount = Count(sumOf { it.classCount.covered }, sumOf { it.classCount.total }),
+    packageCount = Count(count { it.classCount.covered > 0 }, size),
+    packages = this
+)
@@ -0,0 +1,211 @@
+/**
+ * Copyright 2020 - 2022 EPAM Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.epam.drill.plugins.test2code.coverage
+
+import com.epam.drill.plugins.test2code.*
+import com.epam.drill.plugins.test2code.common.api.*
+import kotlinx.atomicfu.*
+import java.util.*
+import java.util.concurrent.*
+
+/**
+ * Coverage counters of the active scope which are maintained incrementally.
+ * New probes are queued by [add] and merged by class on [update],
+ * so only the counters of the changed classes and their packages are recalculated.
+ * Probes can not be subtracted, after [reset] the counters are calculated again from the remaining sessions.
+ * The sessions may be taken before a concurrent reset, so each update is given the [generation]
+ * taken before its sessions, and the counters are calculated again until the sessions are taken after the last reset.
+ * The counters are updated by the realtime coverage job only.
+ * @features Sending coverage data
+ */
+internal class CoverageAccumulator {
+    private val pending = ConcurrentLinkedQueue<Pair<String, Collection<ExecClassData>>>()
+
+    private val _generation = atomic(0)
+
+    private var stateGeneration = -1
+
+    private var state: AccumulatorState? = null
+
+    /**
+     * The number of resets, it must be taken before the sessions passed to [update]
+     */
+    val generation: Int get() = _generation.value
+
+    /**
+     * Queue new probes of the session
+     * @param testType the test type of the session
+     * @param probes the probes, the same probes may be added several times
+     */
+    fun add(testType: String, probes: Collection<ExecClassData>) {
+        if (probes.any()) pending.add(testType to probes)
+    }
+
+    /**
+     * Drop the queued probes and calculate the counters again on the next update
+     */
+    fun reset() {
+        _generation.incrementAndGet()
+        pending.clear()
+    }
+
+    /**
+     * Apply the queued probes and calculate the counters
+     * @param context the build context, the counters are calculated again when it is changed
+     * @param sessions all sessions of the scope, used only when the counters are calculated again
+     * @param generation the [generation] taken before the sessions
+     * @return the counters without the coverage by tests
+     */
+    fun update(
+        context: CoverContext,
+        sessions: Sequence<Session>,
+        generation: Int,
+    ): BundleCounters = run {
+        val current = state?.takeIf { stateGeneration == generation && it.context === context }
+            ?: AccumulatorState(context).apply {
+                sessions.forEach { session -> add(session.testType, session) }
+            }.also {
+                state = it
+                stateGeneration = generation
+            }
+        sessions.forEach { current.addType(it.testType) }
+        generateSequence { pending.poll() }.forEach { (testType, probes) ->
+            current.add(testType, probes.asSequence())
+        }
+        current.counters()
+    }
+}
+
+private class AccumulatorState(val context: CoverContext) {
+    private val index = context.coverageIndex
+
+    private val all = hashMapOf<Long, Probes>()
+
+    private val byType = linkedMapOf<String, MutableMap<Long, Probes>>()
+
+    private val idsByClass = arrayOfNulls<MutableSet<Long>>(index.classCount)
+
+    private val changedByType = linkedMapOf<String, MutableSet<Int>>()
+
+    private var typesChanged = false
+
+    private val allBundle = BundleAccumulator(index)
+
+    private val overlapBundle = BundleAccumulator(index)
+
+    private val testTypeOverlapBundle = BundleAccumulator(index)
+
+    private val byTypeBundles = linkedMapOf<String, BundleAccumulator>()
+
+    fun addType(testType: String) = byType.getOrPut(testType) {
+        typesChanged = true
+        byTypeBundles[testType] = BundleAccumulator(index)
+        hashMapOf()
+    }
+
+    fun add(testType: String, probes: Sequence<ExecClassData>) {
+        val typeProbes = addType(testType)
+        val changed = changedByType.getOrPut(testType) { hashSetOf() }
+        probes.forEach { data ->
+            val ordinal = index.ordinal(data.className)
+            if (ordinal >= 0) {
+                val id = data.id()
+                all.mergeProbes(id, data.probes)
+                typeProbes.mergeProbes(id, data.probes)
+                (idsByClass[ordinal] ?: hashSetOf<Long>().also { idsByClass[ordinal] = it }).add(id)
+                changed.add(ordinal)
+            }
+        }
+    }
+
+    fun counters(): BundleCounters {
+        val changed = changedByType.values.flatMapTo(hashSetOf()) { it }
+        changed.forEach { ordinal ->
+            allBundle.update(ordinal, classCounter(ordinal) { all[it] })
+            overlapBundle.update(ordinal, classCounter(ordinal) { id ->
+                all[id]?.let { probes -> context.build.probes[id]?.probes?.intersect(probes)?.takeIf { true in it } }
+            })
+        }
+        //a new test type may narrow the overlap of the classes which are not changed
+        val overlapChanged = if (typesChanged) idsByClass.indices.filter { idsByClass[it] != null } else changed
+        overlapChanged.forEach { ordinal ->
+            testTypeOverlapBundle.update(ordinal, classCounter(ordinal) { id ->
+                byType.values.takeIf { it.size > 1 }?.map { it[id] ?: return@classCounter null }?.reduce { acc, probes ->
+                    acc.intersect(probes)
+                }?.takeIf { true in it }
+            })
+        }
+        changedByType.forEach { (testType, ordinals) ->
+            val typeProbes = byType.getValue(testType)
+            val bundle = byTypeBundles.getValue(testType)
+            ordinals.forEach { ordinal -> bundle.update(ordinal, classCounter(ordinal) { typeProbes[it] }) }
+        }
+        changedByType.clear()
+        typesChanged = false
+        return BundleCounters(
+            all = allBundle.counter(),
+            testTypeOverlap = testTypeOverlapBundle.counter(),
+            overlap = overlapBundle.counter(),
+            byTestType = byTypeBundles.mapValues { it.value.counter() },
+        )
+    }
+
+    /**
+     * Calculate the counters of the class by the probes of its class ids
+     * @return null if there are no probes of the class
+     */
+    private fun classCounter(
+        ordinal: Int,
+        probesById: (Long) -> Probes?,
+    ): ClassCounter? = idsByClass[ordinal]?.mapNotNull(probesById)?.takeIf { it.any() }?.let { probes ->
+        val merged = probes.fold(emptyProbes(index.probeCounts[ordinal])) { acc, set -> acc.mergeCovered(set) }
+        index.classCounter(ordinal, merged)
+    }
+
+    private fun MutableMap<Long, Probes>.mergeProbes(id: Long, probes: Probes) {
+        this[id]?.mergeInPlace(probes) ?: put(id, probes.copy())
+    }
+}
+
+/**
+ * Package and bundle counters which are recalculated only for the packages of the updated classes
+ */
+private class BundleAccumulator(private val index: CoverageIndex) {
+    private val classes = arrayOfNulls<ClassCounter>(index.classCount)
+
+    private val packages = arrayOfNulls<PackageCounter>(index.packageNames.size)
+
+    private val changed = BitSet(index.packageNames.size)
+
+    private var bundle: BundleCounter? = null
+
+    fun update(ordinal: Int, counter: ClassCounter?) {
+        if (counter != null || classes[ordinal] != null) {
+            classes[ordinal] = counter
+            changed.set(index.classPackages[ordinal])
+        }
+    }
+
+    fun counter(): BundleCounter = bundle?.takeIf { changed.isEmpty } ?: run {
+        changed.stream().forEach { pkg ->
+            packages[pkg] = (index.packageClasses[pkg] until index.packageClasses[pkg + 1]).mapNotNull {
+                classes[it]
+            }.takeIf { it.any() }?.toPackageCounter(index.packageNames[pkg])
+        }
+        changed.clear()
+        packages.filterNotNull().toBundleCounter(index.tree).also { bundle = it }
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright 2020 - 2022 EPAM Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.epam.drill.plugins.test2code.coverage
+
+import com.epam.drill.plugins.test2code.api.*
+import com.epam.drill.plugins.test2code.util.*
+
+/**
+ * Immutable index of the classes and methods of the package tree, it is built once per class data.
+ * Classes are numbered in the order of their packages, so the classes of a package have consecutive ordinals,
+ * and the counters are aggregated by ordinals without the maps of the tree.
+ * @param tree the tree of application packages
+ */
+class CoverageIndex(val tree: PackageTree) {
+
+    private val ordinals: Map<String, Int>
+
+    internal val classNames: Array<String>
+
+    internal val probeCounts: IntArray
+
+    internal val packageNames: Array<String>
+
+    /**
+     * The first class ordinal of each package, the last element is the number of classes
+     */
+    internal val packageClasses: IntArray
+
+    /**
+     * The package ordinal of each class
+     */
+    internal val classPackages: IntArray
+
+    /**
+     * The first method ordinal of each class, the last element is the number of methods
+     */
+    private val classMethods: IntArray
+
+    private val probeFirst: IntArray
+
+    private val probeLast: IntArray
+
+    /**
+     * Method counters without probes, they are copied with the calculated count
+     */
+    private val methods: Array<MethodCounter>
+
+    init {
+        val classes = tree.packages.flatMap { it.classes }.associateBy { fullClassname(it.path, it.name) }
+        val packages = classes.keys.groupBy { classPath(it) }
+        classNames = packages.values.flatten().toTypedArray()
+        ordinals = classNames.withIndex().associate { (ordinal, name) -> name to ordinal }
+        probeCounts = IntArray(classNames.size) { classes.getValue(classNames[it]).totalCount }
+        packageNames = packages.keys.toTypedArray() //the names are interned by classPath
+        packageClasses = IntArray(packageNames.size + 1).also { starts ->
+            packages.values.forEachIndexed { i, names -> starts[i + 1] = starts[i] + names.size }
+        }
+        classPackages = IntArray(classNames.size).also { pkgs ->
+            for (pkg in packageNames.indices) pkgs.fill(pkg, packageClasses[pkg], packageClasses[pkg + 1])
+        }
+        val classMethodList = classNames.map { classes.getValue(it).methods }
+        classMethods = IntArray(classNames.size + 1).also { starts ->
+            classMethodList.forEachIndexed { i, list -> starts[i + 1] = starts[i] + list.size }
+        }
+        val methodList = classMethodList.flatten()
+        probeFirst = IntArray(methodList.size) { methodList[it].probeRange.first }
+        probeLast = IntArray(methodList.size) { methodList[it].probeRange.last }
+        methods = classNames.withIndex().flatMap { (ordinal, fullClassname) ->
+            classMethodList[ordinal].map {
+                MethodCounter(
+                    it.name, it.desc, it.decl,
+                    sign = signature(fullClassname, it.name, it.desc),
+                    fullName = fullMethodName(fullClassname, it.name, it.desc),
+                    count = zeroCount
+                )
+            }
+        }.toTypedArray()
+    }
+
+    val classCount: Int get() = classNames.size
+
+    /**
+     * @return the ordinal of the class or -1 if the class is not in the tree
+     */
+    fun ordinal(className: String): Int = ordinals[className] ?: -1
+
+    /**
+     * Calculate coverage counters of the class by its merged probes
+     * @param ordinal the class ordinal
+     * @param probes the merged probes of the class
+     */
+    internal fun classCounter(ordinal: Int, probes: Probes): ClassCounter = classNames[ordinal].let { fullClassname ->
+        val first = classMethods[ordinal]
+        ClassCounter(
+            path = classPath(fullClassname),
+            name = classname(fullClassname),
+            count = probes.toCount(),
+            fullName = fullClassname,
+            probes = probes,
+            methods = List(classMethods[ordinal + 1] - first) {
+                val method = first + it
+                methods[method].copy(count = probes.toCount(probeFirst[method], probeLast[method]))
+            }
+        )
+    }
+
+    /**
+     * Calculate the bundle counters by the merged probes of the classes
+     * @param scratch the merged probes of the classes collected by their ordinals
+     */
+    internal fun bundle(scratch: BundleScratch): BundleCounter = scratch.run {
+        ordinals.sort(0, size)
+        val packages = mutableListOf<PackageCounter>()
+        var i = 0
+        while (i < size) {
+            val pkg = classPackages[ordinals[i]]
+            val classes = mutableListOf<ClassCounter>()
+            while (i < size && classPackages[ordinals[i]] == pkg) {
+                classes.add(classCounter(ordinals[i], probes[ordinals[i]]!!))
+                i++
+            }
+            packages.add(classes.toPackageCounter(packageNames[pkg]))
+        }
+        packages.toBundleCounter(tree)
+    }
+}
+
+/**
+ * Buffers for the bundle calculation, a worker reuses them for the bundles of many tests
+ * @param index the index the buffers are sized by
+ */
+internal class BundleScratch(val index: CoverageIndex) {
+    /**
+     * The merged probes by the class ordinals
+     */
+    val probes = arrayOfNulls<Probes>(index.classCount)
+
+    /**
+     * The ordinals of the classes with probes, only the first [size] are used
+     */
+    val ordinals = IntArray(index.classCount)
+
+    var size = 0
+
+    fun add(ordinal: Int, data: Probes) {
+        val classProbes = probes[ordinal] ?: emptyProbes(index.probeCounts[ordinal]).also {
+            probes[ordinal] = it
+            ordinals[size++] = ordinal
+        }
+        classProbes.mergeCovered(data)
+    }
+
+    fun clear() {
+        for (i in 0 until size) probes[ordinals[i]] = null
+        size = 0
+    }
+}
@@ -76,6 +76,7 @@ data class InitCoverContext(
  * @param parentBuild information about the previous build
  * @param testsToRun the map of testing data
  * @param testsToRunParentDurations duration of tests performed
+ * @param coverageIndex the index of the package tree
  */
 data class CoverContext(
     val agentType: String,
@@ -87,6 +88,7 @@ data class CoverContext(
     val parentBuild: CachedBuild? = null,
     val testsToRun: GroupedTests = emptyMap(),
     val testsToRunParentDurations: TestDurations = TestDurations(),
+    val coverageIndex: CoverageIndex = CoverageIndex(packageTree),
 ) {
     override fun equals(other: Any?): Boolean = super.equals(other)
 
@@ -190,7 +192,7 @@ data class PackageCounter(
  * @param count the number of covered and all probes
  * @param methods the list of method coverage counters
  * @param fullName the full name of the class (class path + class name)
- * @param probes the list of class probes
+ * @param probes the class probes
  */
 @Serializable
 data class ClassCounter(
@@ -199,7 +201,7 @@ data class ClassCounter(
     override val count: Count,
     @DeserializeWithPool val methods: List<MethodCounter>,
     val fullName: String,
-    val probes: List<Boolean> = emptyList(),
+    @Serializable(with = ClassProbesSerializer::class) val probes: Probes = probesOf(),
 ) : NamedCounter()
 
 /**
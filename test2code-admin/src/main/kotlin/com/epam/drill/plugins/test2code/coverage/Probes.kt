@@ -18,6 +18,11 @@ package com.epam.drill.plugins.test2code.coverage
 import com.epam.drill.plugins.test2code.api.*
 import com.epam.drill.plugins.test2code.common.api.*
 import kotlinx.collections.immutable.*
+import kotlinx.serialization.*
+import kotlinx.serialization.builtins.*
+import kotlinx.serialization.descriptors.*
+import kotlinx.serialization.encoding.*
+import java.util.*
 
 /**
  * Merge probes in same classes
@@ -32,9 +37,15 @@ internal fun Sequence<ExecClassData>.merge(): PersistentMap<Long, ExecClassData>
 internal fun PersistentMap<Long, ExecClassData>.merge(
     probes: Sequence<ExecClassData>,
 ): PersistentMap<Long, ExecClassData> = if (probes.any()) {
+    //ids of the classes which probes are already copied by this merge, so they are merged in place
+    val copied = hashSetOf<Long>()
     mutate { map ->
         probes.forEach { data ->
-            data.id().let { map[it] = map[it]?.merge(data) ?: data }
+            data.id().let { id ->
+                map[id] = map[id]?.let { current ->
+                    if (copied.add(id)) current.merge(data) else current.apply { this.probes.mergeInPlace(data.probes) }
+                } ?: data
+            }
         }
     }
 } else this
@@ -78,16 +89,13 @@ fun List<Boolean>.merge(other: List<Boolean>): List<Boolean> = mapIndexed { i, b
 }
 
 
+/**
+ * Check the probes without the sentinel bit, which is the last set bit
+ */
 operator fun Probes.contains(value: Boolean): Boolean {
     if (size == 0) return false
-    return copy().let {
-        it.set(size, false)
-        if (value) {
-            !it.isEmpty
-        } else {
-            it.isEmpty  //fixme for false value
-        }
-    }
+    val hasCovered = nextSetBit(0) < size
+    return if (value) hasCovered else !hasCovered //fixme for false value
 }
 
 fun Probes.copy(): Probes {
@@ -98,13 +106,35 @@ val Probes.size
     get() = maxOf(0, this.length() - 1) //bitcode magic
 
 fun Probes.merge(set: Probes): Probes {
-    return copy().apply {
-        (0 until length()).forEach {
-            set(it, get(it) or set.get(it))
-        }
-    }
+    return copy().mergeInPlace(set)
+}
+
+/**
+ * Merge word by word in place. The bits of [set] beyond the sentinel bit of these probes are dropped,
+ * so the size of the probes is kept.
+ */
+fun Probes.mergeInPlace(set: Probes): Probes = apply {
+    val length = length()
+    or(set)
+    if (length() > length) clear(length, length())
+}
+
+/**
+ * Merge the covered probes of [set] in place. Unlike [mergeInPlace], the sentinel bit of [set] is not merged,
+ * so the probes of the class with a different number of probes do not add a covered probe.
+ */
+internal fun Probes.mergeCovered(set: Probes): Probes = apply {
+    val sentinel = set.length() - 1
+    val isSet = sentinel >= 0 && get(sentinel)
+    mergeInPlace(set)
+    if (sentinel >= 0 && !isSet) clear(sentinel)
 }
 
+/**
+ * Probes of the class with [count] probes, none of them covered
+ */
+internal fun emptyProbes(count: Int): Probes = BitSet(count + 1).apply { set(count) }
+
 inline fun Probes.any(predicate: (Boolean) -> Boolean): Boolean {
     return !isEmpty //fixme for false value
 }
@@ -118,3 +148,33 @@ fun Probes.covered(): Int {
 }
 
 internal fun Probes.toCount() = Count(maxOf(0, cardinality() - 1), size)
+
+/**
+ * Count the covered and all probes of the range without copying them, e.g. the probes of a method
+ */
+internal fun Probes.toCount(range: ProbeRange): Count = toCount(range.first, range.last)
+
+internal fun Probes.toCount(first: Int, last: Int): Count {
+    val end = minOf(last + 1, size)
+    var covered = 0
+    var index = nextSetBit(first)
+    while (index in 0 until end) {
+        covered++
+        index = nextSetBit(index + 1)
+    }
+    return Count(covered, maxOf(0, last - first + 1))
+}
+
+/**
+ * Keeps the stored form of [ClassCounter.probes] a list of booleans, as it was persisted
+ * in the bundles of builds and finished scopes before the probes were packed into a bitset
+ */
+internal object ClassProbesSerializer : KSerializer<Probes> {
+    private val listSerializer = ListSerializer(Boolean.serializer())
+
+    override val descriptor: SerialDescriptor = listSerializer.descriptor
+
+    override fun serialize(encoder: Encoder, value: Probes) = listSerializer.serialize(encoder, value.toList())
+
+    override fun deserialize(decoder: Decoder): Probes = listSerializer.deserialize(decoder).toBitSet()
+}
@@ -18,6 +18,7 @@ package com.epam.drill.plugins.test2code
 import com.epam.drill.plugin.api.*
 import com.epam.drill.plugins.test2code.api.*
 import com.epam.drill.plugins.test2code.common.api.*
+import com.epam.drill.plugins.test2code.coverage.*
 import com.epam.drill.plugins.test2code.test.js.*
 import com.epam.drill.plugins.test2code.util.*
 import kotlinx.coroutines.*
@@ -104,7 +105,73 @@ class JsCoverageTest : PostgresBased("js_coverage") {
         }
     }
 
-    private suspend fun calculateCoverage(addProbes: suspend ActiveScope.() -> Unit): CoverageInfoSet {
+    @Test
+    fun `accumulated counters should match calculated counters`() = runBlocking {
+        val state = initState()
+        val active = state.activeScope
+        val context = state.coverContext()
+        val accumulator = active.coverageAccumulator
+        active.execSession(manualTestType) { sessionId ->
+            addProbes(sessionId) { probes }
+        }
+        accumulator.update(context, active.asSequence(), accumulator.generation)
+        active.execSession(autoTestType) { sessionId ->
+            addProbes(sessionId) { probes2 }
+            addProbes(sessionId) { IncorrectProbes.underCount }
+            addProbes(sessionId) { IncorrectProbes.notExisting }
+        }
+        val accumulated = accumulator.update(context, active.asSequence(), accumulator.generation)
+        val expected = active.asSequence().calcBundleCounters(context)
+        assertEquals(expected.all, accumulated.all)
+        assertEquals(expected.testTypeOverlap, accumulated.testTypeOverlap)
+        assertEquals(expected.overlap, accumulated.overlap)
+        assertEquals(expected.byTestType, accumulated.byTestType)
+    }
+
+    @Test
+    fun `accumulated counters should be calculated again when the realtime session is cancelled`() = runBlocking {
+        val state = initState()
+        val active = state.activeScope
+        val context = state.coverContext()
+        val accumulator = active.coverageAccumulator
+        active.execSession(manualTestType) { sessionId ->
+            addProbes(sessionId) { probes }
+        }
+        val sessionId = genUuid()
+        active.startSession(sessionId = sessionId, testType = autoTestType, isRealtime = true)
+        active.addProbes(sessionId) { probes2 }
+        accumulator.update(context, active.realtimeSessions(), accumulator.generation)
+        //the realtime job takes the sessions before the session is cancelled and updates the counters after it
+        val generation = accumulator.generation
+        val sessions = active.realtimeSessions()
+        active.cancelSession(sessionId)
+        accumulator.update(context, sessions, generation)
+        val accumulated = accumulator.update(context, active.realtimeSessions(), accumulator.generation)
+        val expected = active.realtimeSessions().calcBundleCounters(context)
+        assertEquals(expected.all, accumulated.all)
+        assertEquals(expected.testTypeOverlap, accumulated.testTypeOverlap)
+        assertEquals(expected.overlap, accumulated.overlap)
+        assertEquals(expected.byTestType, accumulated.byTestType)
+    }
+
+    @Test
+    fun `bundles by tests should not depend on pool`() = runBlocking {
+        val state = initState()
+        val active = state.activeScope
+        active.execSession(manualTestType) { sessionId ->
+            addProbes(sessionId) { probes }
+        }
+        active.execSession(autoTestType) { sessionId ->
+            addProbes(sessionId) { probes2 }
+        }
+        val context = state.coverContext()
+        val expected = active.asSequence().calcBundleCounters(context)
+        val calculated = active.asSequence().calcBundleCounters(context, pool = bundlePool(2))
+        assertEquals(2, calculated.byTest.size)
+        assertEquals(expected.byTest, calculated.byTest)
+    }
+
+    private suspend fun initState(): AgentState {
         val adminData = object : AdminData {
         }
         val state = AgentState(
@@ -113,6 +180,11 @@ class JsCoverageTest : PostgresBased("js_coverage") {
         state.init()
         (state.data as DataBuilder) += ast
         state.initialized()
+        return state
+    }
+
+    private suspend fun calculateCoverage(addProbes: suspend ActiveScope.() -> Unit): CoverageInfoSet {
+        val state = initState()
         val active = state.activeScope
         active.addProbes()
         val finished = active.finish(enabled = true)
@@ -121,6 +193,8 @@ class JsCoverageTest : PostgresBased("js_coverage") {
         return bundleCounters.calculateCoverageData(context)
     }
 
+    private fun ActiveScope.realtimeSessions(): Sequence<Session> = this + activeSessions.values.filter { it.isRealtime }
+
     private suspend fun ActiveScope.execSession(testType: String, block: suspend ActiveScope.(String) -> Unit) {
         val sessionId = genUuid()
         startSession(sessionId = sessionId, testType = testType)
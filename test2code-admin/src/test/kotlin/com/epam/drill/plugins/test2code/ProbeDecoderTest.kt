@@ -0,0 +1,179 @@
+/**
+ * Copyright 2020 - 2022 EPAM Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.epam.drill.plugins.test2code
+
+import com.epam.drill.plugins.test2code.coverage.*
+import com.github.luben.zstd.*
+import java.io.*
+import java.util.*
+import java.util.zip.*
+import kotlin.test.*
+
+class ProbeDecoderTest {
+    private val decoder = BinaryProbesDecoder()
+
+    private val instanceId = "instance"
+
+    @Test
+    fun `decode - should decode packed probes`() {
+        val bytes = ByteArrayOutputStream().apply {
+            write(BINARY_PROBES_HEADER)
+            write(0)
+            DataOutputStream(ZstdOutputStream(this)).use { it.writeSample() }
+        }.toByteArray()
+        val content = BINARY_PROBES_MARKER + Base64.getEncoder().encodeToString(bytes)
+        assertTrue { content.isBinaryProbes() }
+        val message = assertNotNull(decoder.decode(instanceId, content))
+        assertEquals("session", message.sessionId)
+        val data = message.data.single()
+        assertEquals(1L, data.id)
+        assertEquals("foo/Bar", data.className)
+        assertEquals("test", data.testName)
+        assertEquals("id", data.testId)
+        assertEquals(3, data.probes.size)
+        assertEquals(2, data.probes.covered())
+    }
+
+    @Test
+    fun `decode - should use the registered dictionary`() {
+        val dictionary = "foo/Bar\nfoo/Baz\n".toByteArray()
+        val registration = BINARY_PROBES_MARKER + Base64.getEncoder().encodeToString(
+            BINARY_DICTIONARY_HEADER + dictionary
+        )
+        assertNull(decoder.decode(instanceId, registration))
+        val bytes = ByteArrayOutputStream().apply {
+            write(BINARY_PROBES_HEADER)
+            write(PROBES_DICTIONARY)
+            DataOutputStream(this).writeInt(CRC32().apply { update(dictionary) }.value.toInt())
+            val compressed = ZstdOutputStream(this).apply { setDict(ZstdDictCompress(dictionary, 3)) }
+            DataOutputStream(compressed).use { it.writeSample() }
+        }.toByteArray()
+        val message = decoder.decode(instanceId, BINARY_PROBES_MARKER + Base64.getEncoder().encodeToString(bytes))
+        assertEquals("foo/Bar", message?.data?.single()?.className)
+    }
+
+    @Test
+    fun `decode - should reject unknown dictionary`() {
+        val bytes = BINARY_PROBES_HEADER + byteArrayOf(PROBES_DICTIONARY.toByte(), 0, 0, 0, 1)
+        val content = BINARY_PROBES_MARKER + Base64.getEncoder().encodeToString(bytes)
+        assertFailsWith<IllegalStateException> { decoder.decode(instanceId, content) }
+    }
+
+    @Test
+    fun `decode - should resolve interned names`() {
+        val registration = interned {
+            writeUTF("session")
+            writeInt(1)
+            writeLong(1L)
+            writeUTF("foo/Bar")
+            writeInt(1)
+            writeInt(0)
+            writeUTF("test")
+            writeUTF("id")
+            writeInt(0)
+        }
+        assertTrue { decoder.decode(instanceId, registration)?.data?.isEmpty() == true }
+        val message = decoder.decode(instanceId, interned {
+            writeUTF("session")
+            writeInt(0)
+            writeInt(0)
+            writeInt(1)
+            writeLong(1L)
+            writeInt(0)
+            writeInt(3)
+            write(0b1001)
+        })
+        val data = assertNotNull(message).data.single()
+        assertEquals("foo/Bar", data.className)
+        assertEquals("test", data.testName)
+        assertEquals("id", data.testId)
+        assertEquals(1, data.probes.covered())
+        decoder.release(instanceId, "session")
+        assertFailsWith<IllegalStateException> {
+            decoder.decode(instanceId, interned {
+                writeUTF("session")
+                writeInt(0)
+                writeInt(0)
+                writeInt(1)
+                writeLong(1L)
+                writeInt(0)
+                writeInt(3)
+                write(0b1001)
+            })
+        }
+    }
+
+    @Test
+    fun `decode - should keep test names of the instances sharing a session apart`() {
+        listOf("first", "second").forEach { instance ->
+            decoder.decode(instance, interned {
+                writeUTF("")
+                writeInt(1)
+                writeLong(1L)
+                writeUTF("foo/Bar")
+                writeInt(1)
+                writeInt(0)
+                writeUTF("$instance-test")
+                writeUTF("$instance-id")
+                writeInt(0)
+            })
+        }
+        val coverage = interned {
+            writeUTF("")
+            writeInt(0)
+            writeInt(0)
+            writeInt(1)
+            writeLong(1L)
+            writeInt(0)
+            writeInt(3)
+            write(0b1001)
+        }
+        assertEquals("first-test", decoder.decode("first", coverage)?.data?.single()?.testName)
+        assertEquals("second-test", decoder.decode("second", coverage)?.data?.single()?.testName)
+        decoder.release("first", "")
+        assertFailsWith<IllegalStateException> { decoder.decode("first", coverage) }
+        assertEquals("second-id", decoder.decode("second", coverage)?.data?.single()?.testId)
+    }
+
+    @Test
+    fun `isBinaryProbes - should not match other formats`() {
+        assertFalse { "{\"type\":\"INIT\"}".isBinaryProbes() }
+        assertFalse { Base64.getEncoder().encodeToString(Zstd.compress(byteArrayOf(1, 2, 3))).isBinaryProbes() }
+    }
+
+    @Test
+    fun `decode - should reject unknown header`() {
+        val content = BINARY_PROBES_MARKER + Base64.getEncoder().encodeToString(byteArrayOf(0, 1, 2, 3, 4))
+        assertFailsWith<IllegalArgumentException> { decoder.decode(instanceId, content) }
+    }
+
+    private fun DataOutputStream.writeSample() {
+        writeUTF("session")
+        writeInt(1)
+        writeLong(1L)
+        writeUTF("foo/Bar")
+        writeUTF("test")
+        writeUTF("id")
+        writeInt(3)
+        write(0b1101) //probes 0 and 2, the count bit 3
+    }
+
+    private fun interned(block: DataOutputStream.() -> Unit): String = ByteArrayOutputStream().apply {
+        write(BINARY_PROBES_HEADER)
+        write(PROBES_INTERNED)
+        DataOutputStream(ZstdOutputStream(this)).use(block)
+    }.toByteArray().let { BINARY_PROBES_MARKER + Base64.getEncoder().encodeToString(it) }
+}
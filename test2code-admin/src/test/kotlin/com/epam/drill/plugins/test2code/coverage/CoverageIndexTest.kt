@@ -0,0 +1,74 @@
+/**
+ * Copyright 2020 - 2022 EPAM Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.epam.drill.plugins.test2code.coverage
+
+import com.epam.drill.plugins.test2code.*
+import com.epam.drill.plugins.test2code.api.*
+import com.epam.drill.plugins.test2code.common.api.*
+import com.epam.drill.plugins.test2code.test.js.*
+import kotlin.test.*
+
+class CoverageIndexTest {
+    private val entities = ast + AstEntity(
+        path = "foo/qux",
+        name = "quux.js",
+        methods = listOf(AstMethod(name = "quux", params = listOf(), returnType = "void", probes = listOf(1, 2)))
+    )
+
+    private val index = entities.toPackages().let { packages ->
+        CoverageIndex(
+            PackageTree(
+                totalCount = packages.sumOf { it.totalCount },
+                totalMethodCount = packages.sumOf { it.totalMethodsCount },
+                totalClassCount = packages.sumOf { it.totalClassesCount },
+                packages = packages
+            )
+        )
+    }
+
+    @Test
+    fun `ordinal - should number classes by packages`() {
+        assertEquals(0, index.ordinal("foo/bar/baz.js"))
+        assertEquals(1, index.ordinal("foo/qux/quux.js"))
+        assertEquals(-1, index.ordinal("foo/bar/not-existing"))
+        assertEquals(listOf("foo/bar", "foo/qux"), index.packageNames.toList())
+    }
+
+    @Test
+    fun `bundle - should count probes of methods and skip unknown classes`() {
+        val bundle = (probes + IncorrectProbes.underCount + IncorrectProbes.notExisting).asSequence().bundle(index)
+        assertEquals(Count(3, 7), bundle.count)
+        assertEquals(Count(1, 1), bundle.classCount)
+        assertEquals(Count(2, 3), bundle.methodCount)
+        assertEquals(Count(1, 1), bundle.packageCount)
+        bundle.packages.single().classes.single().run {
+            assertEquals("foo/bar/baz.js", fullName)
+            assertEquals(listOf(true, true, false, true, false), probes.toList())
+            assertEquals(listOf(Count(2, 2), Count(0, 1), Count(1, 2)), methods.map { it.count })
+            assertEquals(listOf("foo", "bar", "baz"), methods.map { it.name })
+        }
+    }
+
+    @Test
+    fun `bundle - should clear reused scratch`() {
+        val scratch = BundleScratch(index)
+        val first = probes.asSequence().bundle(index, scratch)
+        val second = probes2.asSequence().bundle(index, scratch)
+        assertEquals(probes.asSequence().bundle(index), first)
+        assertEquals(probes2.asSequence().bundle(index), second)
+        assertEquals(0, scratch.size)
+    }
+}
@@ -15,6 +15,7 @@
  */
 package com.epam.drill.plugins.test2code.coverage
 
+import com.epam.drill.plugins.test2code.api.*
 import com.epam.drill.plugins.test2code.common.api.*
 import kotlinx.collections.immutable.*
 import kotlin.test.*
@@ -97,4 +98,54 @@ class ProbesTest {
             fbs.toList().merge(sbs.toList())
         )
     }
+
+    @Test
+    fun `mergeInPlace - should keep size of probes`() {
+        val probes = probesOf(true, false, false)
+        probes.mergeInPlace(probesOf(false, false, true, false, true))
+        assertEquals(listOf(true, false, true), probes.toList())
+        assertEquals(3, probes.size)
+    }
+
+    @Test
+    fun `contains - should skip sentinel bit`() {
+        assertFalse(true in probesOf(false, false))
+        assertTrue(false in probesOf(false, false))
+        assertTrue(true in probesOf(false, true))
+        assertFalse(true in probesOf())
+    }
+
+    @Test
+    fun `merge - should not change merged probes`() {
+        val data = ExecClassData(id = 1L, className = "foo/Bar", probes = probesOf(true, false, false))
+        val other = data.copy(probes = probesOf(false, true, false))
+        val third = data.copy(probes = probesOf(false, false, true))
+        val merged = sequenceOf(data, other, third).merge()
+        assertEquals(listOf(true, true, true), merged.getValue(data.id()).probes.toList())
+        assertEquals(listOf(true, false, false), data.probes.toList())
+        assertEquals(listOf(false, true, false), other.probes.toList())
+    }
+
+    @Test
+    fun `mergeCovered - should match merge of boolean lists`() {
+        val probes = booleanArrayOf(false, true, false)
+        listOf(
+            booleanArrayOf(true, false, false),
+            booleanArrayOf(true, false),
+            booleanArrayOf(false, false, false, true, true),
+            booleanArrayOf()
+        ).forEach { other ->
+            val merged = emptyProbes(probes.size).mergeCovered(probesOf(*probes)).mergeCovered(probesOf(*other))
+            assertEquals(List(probes.size) { false }.merge(probes.toList()).merge(other.toList()), merged.toList())
+            assertEquals(probes.size, merged.size)
+        }
+    }
+
+    @Test
+    fun `toCount - should count probes of range`() {
+        val probes = probesOf(true, false, true, true, false)
+        assertEquals(Count(1, 2), probes.toCount(ProbeRange(0, 1)))
+        assertEquals(Count(2, 3), probes.toCount(ProbeRange(2, 4)))
+        assertEquals(Count(0, 0), probes.toCount(ProbeRange(4, 3)))
+    }
 }
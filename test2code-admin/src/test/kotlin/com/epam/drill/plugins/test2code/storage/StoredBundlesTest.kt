@@ -0,0 +1,65 @@
+/**
+ * Copyright 2020 - 2022 EPAM Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.epam.drill.plugins.test2code.storage
+
+import com.epam.drill.plugins.test2code.api.*
+import com.epam.drill.plugins.test2code.common.api.*
+import com.epam.drill.plugins.test2code.coverage.*
+import kotlinx.serialization.json.*
+import kotlin.test.*
+
+class StoredBundlesTest {
+    private val classCounter = ClassCounter(
+        path = "foo/bar",
+        name = "Baz",
+        count = Count(1, 3),
+        methods = listOf(MethodCounter("baz", "()V", "()V", "", "foo/bar/Baz.baz", Count(1, 3))),
+        fullName = "foo/bar/Baz",
+        probes = probesOf(false, true, false),
+    )
+
+    private val bundle = BundleCounter(
+        name = "all",
+        count = Count(1, 3),
+        methodCount = Count(1, 1),
+        classCount = Count(1, 1),
+        packageCount = Count(1, 1),
+        packages = listOf(
+            PackageCounter("foo/bar", Count(1, 3), Count(1, 1), Count(1, 1), listOf(classCounter))
+        ),
+    )
+
+    private val stored = StoredBundles(AgentKey("agent", "1.0"), BundleCounters(bundle, bundle, bundle))
+
+    @Test
+    fun `stored bundles - should keep probes in the same form after a round trip`() {
+        val encoded = Json.encodeToString(StoredBundles.serializer(), stored)
+        val decoded = Json.decodeFromString(StoredBundles.serializer(), encoded)
+        assertEquals(stored.agentKey, decoded.agentKey)
+        assertEquals(bundle, decoded.data.all)
+        assertEquals(bundle, decoded.data.overlap)
+        assertEquals(encoded, Json.encodeToString(StoredBundles.serializer(), decoded))
+    }
+
+    @Test
+    fun `class counter - should read probes stored as a list of booleans`() {
+        val encoded = Json.encodeToString(ClassCounter.serializer(), classCounter)
+        assertTrue("\"probes\":[false,true,false]" in encoded)
+        val decoded = Json.decodeFromString(ClassCounter.serializer(), encoded)
+        assertEquals(classCounter.probes, decoded.probes)
+        assertEquals(Count(1, 3), decoded.probes.toCount())
+    }
+}
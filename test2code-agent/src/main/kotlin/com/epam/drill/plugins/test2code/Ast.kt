@@ -15,7 +15,6 @@
  */
 package com.epam.drill.plugins.test2code
 
-import com.epam.drill.jacoco.DrillClassProbesAdapter
 import com.epam.drill.plugins.test2code.checksum.calculateMethodsChecksums
 import com.epam.drill.plugins.test2code.common.api.AstEntity
 import com.epam.drill.plugins.test2code.common.api.AstMethod
@@ -98,11 +97,10 @@ class MethodProbeCounter(
 
 fun parseAstClass(className: String, classBytes: ByteArray): AstEntity {
     val classReader = InstrSupport.classReaderFor(classBytes)
-    val counter = ClassProbeCounter(className)
-    classReader.accept(DrillClassProbesAdapter(counter, false), 0)
+    val classProbes = ClassProbesCache.default.parsed(classBytes) { classReader.countProbes(className) }
 
-    val astClass = counter.astClass
-    val astMethodsWithChecksum = calculateMethodsChecksums(classBytes, className)
+    val astClass = newAstClass(className, classProbes.methods.toMutableList())
+    val astMethodsWithChecksum = calculateMethodsChecksums(classReader, classBytes, className)
 
     astClass.methods = astClass.methods.map {
         it.copy(
@@ -121,6 +119,11 @@ fun newAstClass(
     methods
 )
 
+/**
+ * Full name of the class, e.g. com/example/Foo
+ */
+internal fun AstEntity.className() = if (path.isEmpty()) name else "$path/$name"
+
 private fun AstMethod.classSignature() =
     "${name}/${params.joinToString()}/${returnType}"
 
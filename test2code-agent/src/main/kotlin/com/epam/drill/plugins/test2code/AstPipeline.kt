@@ -0,0 +1,162 @@
+/**
+ * Copyright 2020 - 2022 EPAM Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.epam.drill.plugins.test2code
+
+import com.epam.drill.common.classloading.*
+import com.epam.drill.plugins.test2code.common.api.*
+import mu.KotlinLogging
+import java.util.concurrent.*
+import kotlin.concurrent.*
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Parse the scanned classes by the pipeline of parser threads instead of the scanning thread
+ */
+internal val isAstPipeline = System.getProperty("drill.classes.parse.pipeline")?.toBoolean() ?: false
+
+/**
+ * Number of classes passed by the scanner at once
+ */
+internal val scanBatchSize = System.getProperty("drill.classes.scan.batch.size")?.toIntOrNull()?.coerceAtLeast(1) ?: 50
+
+/**
+ * Number of the parser threads of the pipeline
+ */
+private val parserThreads = System.getProperty("drill.classes.parse.threads")?.toIntOrNull()?.coerceAtLeast(1)
+    ?: java.lang.Runtime.getRuntime().availableProcessors()
+
+/**
+ * Approximate size of InitDataPart sent by the pipeline in bytes
+ */
+private val initPartSize = System.getProperty("drill.classes.init.part.size")?.toIntOrNull()?.coerceAtLeast(1)
+    ?: (512 shl 10)
+
+/**
+ * Scanner -> parsers -> sender pipeline of the class metadata.
+ * The queues between the stages are bounded, so the scanner waits for the parsers and the parsers wait for the sender
+ * instead of keeping the bytes of all scanned classes in memory.
+ * The sender coalesces the parsed classes into parts of about [partSize] bytes.
+ * An empty batch is the end of the stream for a stage.
+ * If a stage thread dies, the other stages stop waiting for it and [process] fails,
+ * the classes are not scanned again since a part of them may have been sent already.
+ */
+internal class AstPipeline(
+    private val parsers: Int = parserThreads,
+    private val partSize: Int = initPartSize,
+    private val parse: (EntitySource) -> AstEntity = { parseAstClass(it.entityName(), it.bytes()) },
+    private val send: (List<AstEntity>) -> Unit,
+) {
+    private val sources = ArrayBlockingQueue<List<EntitySource>>(parsers * 2)
+
+    private val parsed = ArrayBlockingQueue<List<AstEntity>>(parsers * 2)
+
+    @Volatile
+    private var failure: Throwable? = null
+
+    /**
+     * Run the scanning on the calling thread, the method returns when all the scanned classes are sent
+     * @param scan the scanning function, it is called with the consumer of the scanned batches
+     */
+    fun process(scan: ((Set<EntitySource>) -> Unit) -> Unit) {
+        val parserThreads = List(parsers) { stage("drill-ast-parser-$it", ::parseAll) }
+        val senderThread = stage("drill-ast-sender", ::sendAll)
+        try {
+            //the scanner reuses the buffer of the batch
+            scan { batch -> batch.takeIf(Collection<EntitySource>::isNotEmpty)?.toList()?.let(sources::send) }
+        } finally {
+            try {
+                repeat(parsers) { sources.send(emptyList()) }
+                parserThreads.forEach(Thread::join)
+                parsed.send(emptyList())
+                senderThread.join()
+            } catch (e: PipelineFailedException) {
+                (parserThreads + senderThread).forEach(Thread::interrupt)
+            }
+        }
+        failure?.let { throw PipelineFailedException(it) }
+    }
+
+    private fun stage(name: String, block: () -> Unit) = thread(name = name, isDaemon = true) {
+        try {
+            block()
+        } catch (e: Throwable) {
+            //the stages interrupted or stopped by the failure of another stage are not reported
+            if (e !is PipelineFailedException && failure == null) {
+                logger.error(e) { "Class metadata pipeline failed in $name" }
+                failure = failure ?: e
+            }
+        }
+    }
+
+    /**
+     * Put the batch to the queue of the next stage, unless the pipeline has failed
+     */
+    private fun <T> BlockingQueue<T>.send(batch: T) {
+        do {
+            failure?.let { throw PipelineFailedException(it) }
+        } while (!offer(batch, 100, TimeUnit.MILLISECONDS))
+    }
+
+    private fun parseAll() {
+        while (true) {
+            val batch = sources.take().takeIf(List<EntitySource>::isNotEmpty) ?: break
+            batch.mapNotNull { source ->
+                runCatching { parse(source) }.onFailure {
+                    logger.error(it) { "Error parsing class ${source.entityName()}" }
+                }.getOrNull()
+            }.takeIf(List<AstEntity>::isNotEmpty)?.let(parsed::send)
+        }
+    }
+
+    private fun sendAll() {
+        val part = mutableListOf<AstEntity>()
+        var size = 0
+        while (true) {
+            val batch = parsed.take().takeIf(List<AstEntity>::isNotEmpty) ?: break
+            batch.forEach { astEntity ->
+                part.add(astEntity)
+                size += astEntity.estimatedSize()
+                if (size >= partSize) {
+                    sendPart(part)
+                    size = 0
+                }
+            }
+        }
+        sendPart(part)
+    }
+
+    private fun sendPart(part: MutableList<AstEntity>) {
+        part.takeIf(List<AstEntity>::isNotEmpty)?.toList()?.let { astEntities ->
+            try {
+                send(astEntities)
+            } catch (e: Exception) {
+                logger.error(e) { "Error sending ${astEntities.size} classes" }
+            }
+        }
+        part.clear()
+    }
+}
+
+internal class PipelineFailedException(cause: Throwable) : IllegalStateException("Class metadata pipeline failed", cause)
+
+/**
+ * Approximate size of the class in the JSON of InitDataPart
+ */
+internal fun AstEntity.estimatedSize(): Int = path.length + name.length + 32 + methods.sumOf { method ->
+    method.name.length + method.params.sumOf { it.length + 3 } + method.returnType.length +
+        method.checksum.length + method.probes.size * 6 + 64
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2020 - 2022 EPAM Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.epam.drill.plugins.test2code
+
+import com.epam.drill.jacoco.*
+import com.epam.drill.plugins.test2code.common.api.*
+import org.jacoco.core.internal.data.CRC64
+import org.objectweb.asm.*
+import org.objectweb.asm.tree.*
+
+/**
+ * Share the probes of the parsed classes with the instrumentation
+ */
+internal val isProbesCache = System.getProperty("drill.classes.probes.cache")?.toBoolean() ?: false
+
+/**
+ * Max number of classes kept in [ClassProbesCache]
+ */
+private val probesCacheSize = System.getProperty("drill.classes.probes.cache.size")?.toIntOrNull() ?: 10_000
+
+/**
+ * Probes of the class counted by a single pass of [DrillClassProbesAdapter]
+ * @param count the total number of the class probes
+ * @param methods the methods with their probes, without checksums
+ */
+internal class ClassProbes(val count: Int, val methods: List<AstMethod>)
+
+internal fun ClassReader.countProbes(className: String): ClassProbes = ClassProbeCounter(className).let { counter ->
+    accept(DrillClassProbesAdapter(counter, false), 0)
+    ClassProbes(counter.count, counter.astClass.methods)
+}
+
+/**
+ * Count only the total number of the class probes, the methods are not visited
+ */
+internal fun ClassNode.countProbes(): Int = ProbeCounter().let { counter ->
+    accept(DrillClassProbesAdapter(counter, false))
+    counter.count
+}
+
+/**
+ * Probes of the parsed classes keyed by CRC64 class id, so the classes loaded after the scanning
+ * are instrumented without counting their probes again, and the same class found in several
+ * class path roots is parsed once. Only the metadata parsing adds the entries.
+ * The entries are kept for the retransformation, the least recently used ones are evicted,
+ * since a scanned class may never be loaded.
+ * @param isEnabled when false nothing is cached, see [isProbesCache]
+ */
+internal class ClassProbesCache(
+    private val isEnabled: Boolean = isProbesCache,
+    private val maxSize: Int = probesCacheSize
+) {
+    companion object {
+        val default = ClassProbesCache()
+    }
+
+    private val probes = object : LinkedHashMap<Long, ClassProbes>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Long, ClassProbes>?) = size > maxSize
+    }
+
+    /**
+     * @return the probe count of the parsed class or null if it has not been parsed
+     */
+    fun instrumented(classId: Long): Int? = if (isEnabled) synchronized(probes) { probes[classId]?.count } else null
+
+    /**
+     * @return the cached probes of the class or the ones counted by [count]
+     */
+    fun parsed(classBytes: ByteArray, count: () -> ClassProbes): ClassProbes = if (isEnabled) {
+        val classId = CRC64.classId(classBytes)
+        synchronized(probes) { probes[classId] } ?: count().also { synchronized(probes) { probes[classId] = it } }
+    } else count()
+
+    fun clear() = synchronized(probes) { probes.clear() }
+}
@@ -23,42 +23,50 @@ import org.jacoco.core.internal.data.CRC64
 import org.jacoco.core.internal.flow.*
 import org.jacoco.core.internal.instr.*
 import org.objectweb.asm.*
+import org.objectweb.asm.tree.*
+import java.util.concurrent.*
 import mu.KotlinLogging
 
 private val classCounter = atomic(0)
 
+/**
+ * Indices of the instrumented classes by CRC64 class id, so a retransformed class keeps its slot
+ * in [ProbeMetaContainer] and the runtime data instead of taking a new one
+ */
+private val classIndices = ConcurrentHashMap<Long, Int>()
+
+/**
+ * Keep the instrumented bytecode, so the retransformation of a class does not instrument it once more
+ */
+internal val isInstrumentedCache = System.getProperty("drill.classes.instrumented.cache")?.toBoolean() ?: false
+
+private class InstrumentedClass(val bytes: ByteArray, val probeCount: Int)
+
+/**
+ * In the inline mode instrumented methods keep the raw boolean array of the class probes in a local
+ * and every probe is a single array store, as in upstream JaCoCo
+ */
+internal val isInlineProbesMode = System.getProperty("drill.probes.inline.mode")?.toBoolean() ?: false
+
 class DrillInstrumenter(
-    private val probeArrayProvider: ProbeArrayProvider
+    private val probeArrayProvider: ProbeArrayProvider,
+    private val inlineProbes: Boolean = isInlineProbesMode,
 ): Instrumenter {
 
     private val logger = KotlinLogging.logger {}
 
-    override fun instrument(className: String, initialBytes: ByteArray): ByteArray? = try {
-        val version = InstrSupport.getMajorVersion(initialBytes)
-        val classId = CRC64.classId(initialBytes)
+    private val instrumentedClasses = ConcurrentHashMap<Long, InstrumentedClass>().takeIf { isInstrumentedCache }
 
-        //count probes before transformation
-        val counter = ProbeCounter()
-        val reader = InstrSupport.classReaderFor(initialBytes)
-        reader.accept(DrillClassProbesAdapter(counter, false), 0)
+    init {
+        if (inlineProbes) (probeArrayProvider as? SimpleSessionProbeArrayProvider)?.disableDirtyTracking()
+    }
 
-        val genId = classCounter.incrementAndGet()
-        val probeCount = counter.count
-        val strategy = DrillProbeStrategy(
-            probeArrayProvider,
-            className,
-            classId,
-            genId,
-            probeCount
-        )
-        val writer = object : ClassWriter(reader, 0) {
-            override fun getCommonSuperClass(type1: String, type2: String): String = throw IllegalStateException()
+    override fun instrument(className: String, initialBytes: ByteArray): ByteArray? = try {
+        val classId = CRC64.classId(initialBytes)
+        val genId = classIndices.getOrPut(classId) { classCounter.incrementAndGet() }
+        val instrumented = instrumentedClasses?.get(classId) ?: instrument(className, initialBytes, classId, genId).also {
+            instrumentedClasses?.put(classId, it)
         }
-        val visitor = DrillClassProbesAdapter(
-            DrillClassInstrumenter(strategy, className, writer),
-            InstrSupport.needsFrames(version)
-        )
-        reader.accept(visitor, ClassReader.EXPAND_FRAMES)
 
         (probeArrayProvider as? SimpleSessionProbeArrayProvider)?.run {
             probeMetaContainer.addDescriptor(
@@ -66,18 +74,56 @@ class DrillInstrumenter(
                 ProbeDescriptor(
                     id = classId,
                     name = className,
-                    probeCount = probeCount
+                    probeCount = instrumented.probeCount
                 ),
                 global?.second,
                 runtimes.values
             )
         }
 
-        writer.toByteArray()
+        instrumented.bytes
     } catch (e: Exception) {
         logger.error { "Error while instrumenting $className: ${e.message}" }
         null
     }
+
+    private fun instrument(
+        className: String,
+        initialBytes: ByteArray,
+        classId: Long,
+        genId: Int
+    ): InstrumentedClass {
+        val version = InstrSupport.getMajorVersion(initialBytes)
+
+        //count probes before transformation, unless the class has been parsed for the metadata,
+        //otherwise the class is read once into a tree for both the count and the transformation
+        val reader = InstrSupport.classReaderFor(initialBytes)
+        val cachedCount = ClassProbesCache.default.instrumented(classId)
+        val classNode = if (cachedCount == null) {
+            ClassNode().also { reader.accept(it, ClassReader.EXPAND_FRAMES) }
+        } else null
+        val probeCount = cachedCount ?: classNode!!.countProbes()
+
+        val strategy = DrillProbeStrategy(
+            probeArrayProvider,
+            className,
+            classId,
+            genId,
+            probeCount,
+            inlineProbes
+        )
+        val writer = object : ClassWriter(reader, 0) {
+            override fun getCommonSuperClass(type1: String, type2: String): String = throw IllegalStateException()
+        }
+        val visitor = DrillClassProbesAdapter(
+            DrillClassInstrumenter(strategy, className, writer, inlineProbes),
+            InstrSupport.needsFrames(version)
+        )
+        if (classNode != null) {
+            classNode.accept(visitor)
+        } else reader.accept(visitor, ClassReader.EXPAND_FRAMES)
+        return InstrumentedClass(writer.toByteArray(), probeCount)
+    }
 }
 
 
@@ -87,7 +133,8 @@ private class DrillProbeStrategy(
     private val className: String,
     private val classId: Long,
     private val number: Int,
-    private val probeCount: Int
+    private val probeCount: Int,
+    private val inlineProbes: Boolean
 ) : IProbeArrayStrategy {
     override fun storeInstance(mv: MethodVisitor?, clinit: Boolean, variable: Int): Int = mv!!.run {
         val drillClassName = probeArrayProvider.javaClass.name.replace('.', '/')
@@ -102,6 +149,9 @@ private class DrillProbeStrategy(
             Opcodes.INVOKEVIRTUAL, drillClassName, "invoke", "(JILjava/lang/String;I)L$PROBE_IMPL;",
             false
         )
+        if (inlineProbes) {
+            visitMethodInsn(Opcodes.INVOKEVIRTUAL, PROBE_IMPL, "getValues", "()[Z", false)
+        }
         visitVarInsn(Opcodes.ASTORE, variable)
 
         6 //stack size
@@ -115,7 +165,8 @@ private class DrillProbeStrategy(
 class DrillClassInstrumenter(
     private val probeArrayStrategy: IProbeArrayStrategy,
     private val clazzName: String,
-    cv: ClassVisitor
+    cv: ClassVisitor,
+    private val inlineProbes: Boolean = false
 ) : ClassInstrumenter(probeArrayStrategy, cv) {
 
     override fun visitMethod(
@@ -136,7 +187,8 @@ class DrillClassInstrumenter(
             name,
             desc,
             frameEliminator,
-            this.probeArrayStrategy
+            this.probeArrayStrategy,
+            inlineProbes
         )
         return DrillMethodInstrumenter(
             probeVariableInserter,
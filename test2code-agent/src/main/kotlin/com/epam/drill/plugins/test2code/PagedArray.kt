@@ -0,0 +1,76 @@
+/**
+ * Copyright 2020 - 2022 EPAM Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.epam.drill.plugins.test2code
+
+import java.util.concurrent.atomic.*
+
+private const val PAGE_SHIFT = 10
+private const val PAGE_SIZE = 1 shl PAGE_SHIFT
+private const val PAGE_MASK = PAGE_SIZE - 1
+
+/**
+ * Growable array indexed by the class number.
+ * Pages of [PAGE_SIZE] slots are allocated on demand, so the memory follows the number of instrumented classes.
+ * Reads and writes are lock-free, only the allocation of a new page is synchronized.
+ */
+open class PagedArray<T : Any> {
+
+    @Volatile
+    private var pages = arrayOfNulls<AtomicReferenceArray<T?>>(1)
+
+    operator fun get(index: Int): T? = pages.let { current ->
+        val page = index ushr PAGE_SHIFT
+        if (page < current.size) current[page]?.get(index and PAGE_MASK) else null
+    }
+
+    open operator fun set(index: Int, value: T?) {
+        page(index ushr PAGE_SHIFT).set(index and PAGE_MASK, value)
+    }
+
+    open fun getOrPut(index: Int, defaultValue: () -> T): T = page(index ushr PAGE_SHIFT).let { page ->
+        val slot = index and PAGE_MASK
+        page.get(slot) ?: defaultValue().let { value ->
+            if (page.compareAndSet(slot, null, value)) value else page.get(slot)!!
+        }
+    }
+
+    fun forEachIndexed(action: (Int, T?) -> Unit) {
+        pages.forEachIndexed { pageIndex, page ->
+            page?.let {
+                for (slot in 0 until PAGE_SIZE) {
+                    action((pageIndex shl PAGE_SHIFT) + slot, it.get(slot))
+                }
+            }
+        }
+    }
+
+    fun asSequence(): Sequence<T> = pages.asSequence().filterNotNull().flatMap { page ->
+        (0 until PAGE_SIZE).asSequence().mapNotNull(page::get)
+    }
+
+    private fun page(page: Int): AtomicReferenceArray<T?> = pages.takeIf { page < it.size }?.get(page) ?: allocate(page)
+
+    @Synchronized
+    private fun allocate(page: Int): AtomicReferenceArray<T?> {
+        val current = pages.takeIf { page < it.size } ?: pages.copyOf(maxOf(page + 1, pages.size * 2)).also {
+            pages = it
+        }
+        return current[page] ?: AtomicReferenceArray<T?>(PAGE_SIZE).also {
+            current[page] = it
+            pages = current //publish the new page
+        }
+    }
+}
@@ -24,6 +24,7 @@ import com.github.luben.zstd.*
 import kotlinx.atomicfu.*
 import kotlinx.serialization.json.*
 import kotlinx.serialization.protobuf.*
+import java.io.*
 import java.util.*
 import mu.KotlinLogging
 
@@ -41,6 +42,8 @@ class Plugin(
 
     internal val json = Json { encodeDefaults = true }
 
+    private val isParallelScan = System.getProperty("drill.classes.scan.parallel")?.toBoolean() ?: false
+
     private val _enabled = atomic(false)
 
     private val enabled: Boolean get() = _enabled.value
@@ -57,6 +60,8 @@ class Plugin(
         val ids = instrContext.getActiveSessions()
         logger.info { "Send active sessions after reconnect: ${ids.count()}" }
         sendMessage(SyncMessage(ids))
+        probeDictionary?.let { send(it.toMessage()) }
+        resetProbeNames()
     }
 
     //TODO remove
@@ -105,7 +110,7 @@ class Plugin(
     @Suppress("MemberVisibilityCanBePrivate")
     fun retransform() {
         try {
-            Native.RetransformClassesByPackagePrefixes(byteArrayOf())
+            if (retransformBatchSize > 0) retransformBatched() else Native.RetransformClassesByPackagePrefixes(byteArrayOf())
         } catch (ex: Throwable) {
             logger.error(ex) { "Error retransforming classes." }
         }
@@ -153,6 +158,7 @@ class Plugin(
                 if (runtimeData.any()) {
                     probeSender(sessionId)(runtimeData)
                 } else logger.info { "No data for session $sessionId" }
+                releaseProbeNames(sessionId)
                 sendMessage(SessionFinished(sessionId, currentTimeMillis()))
             }
             is StopAllAgentSessions -> {
@@ -162,6 +168,7 @@ class Plugin(
                     if (data.any()) {
                         probeSender(sessionId)(data)
                     }
+                    releaseProbeNames(sessionId)
                 }
                 val ids = stopped.map { it.first }
                 sendMessage(SessionsFinished(ids, currentTimeMillis()))
@@ -170,10 +177,12 @@ class Plugin(
                 val sessionId = action.payload.sessionId
                 logger.info { "Cancellation of recording for session $sessionId" }
                 instrContext.cancel(sessionId)
+                releaseProbeNames(sessionId)
                 sendMessage(SessionCancelled(sessionId, currentTimeMillis()))
             }
             is CancelAllAgentSessions -> {
                 val cancelled = instrContext.cancelAll()
+                cancelled.forEach(::releaseProbeNames)
                 logger.info { "Cancellation of recording for sessions $cancelled" }
                 sendMessage(SessionsCancelled(cancelled, currentTimeMillis()))
             }
@@ -193,11 +202,9 @@ class Plugin(
             val id = context[DRILL_TEST_ID_HEADER] ?: name.id()
             val testKey = TestKey(name, id)
             runtimes[sessionId]?.run {
-                val execDatum = getOrPut(testKey) {
-                    arrayOfNulls<ExecDatum>(MAX_CLASS_COUNT).apply { fillFromMeta(testKey) }
-                }
+                val execDatum = getOrPut(testKey) { newExecData(testKey) }
                 logger.trace { "processServerRequest. thread '${Thread.currentThread().id}' sessionId '$sessionId' testKey '$testKey'" }
-                requestThreadLocal.set(execDatum)
+                bindRequest(execDatum)
             }
         }
     }
@@ -208,7 +215,7 @@ class Plugin(
      */
     fun processServerResponse() {
         (instrContext as DrillProbeArrayProvider).run {
-            requestThreadLocal.remove()
+            unbindRequest()
         }
     }
 
@@ -216,12 +223,19 @@ class Plugin(
         rawAction: String,
     ): AgentAction = json.decodeFromString(AgentAction.serializer(), rawAction)
 
-    override fun scanClasses(consumer: (Set<EntitySource>) -> Unit) {
+    override fun scanClasses(consumer: (Set<EntitySource>) -> Unit) = prepareScanning { packagePrefixes, additionalPaths ->
+        ClassLoadersScanner(packagePrefixes, scanBatchSize, isParallelScan, consumer).scanClasses(additionalPaths)
+    }
+
+    /**
+     * Wait until the classes can be scanned and take the package prefixes and the additional class paths
+     */
+    private inline fun prepareScanning(scan: (List<String>, List<String>) -> Unit) {
         Native.WaitClassScanning()
         val packagePrefixes = Native.GetPackagePrefixes().split(", ")
         val additionalPaths = Native.GetScanClassPath().split(";")
         logger.info { "Scanning classes, package prefixes: $packagePrefixes... " }
-        ClassLoadersScanner(packagePrefixes, 50, consumer).scanClasses(additionalPaths)
+        scan(packagePrefixes, additionalPaths)
     }
 
     /**
@@ -229,14 +243,61 @@ class Plugin(
      */
     private fun scanAndSendMetadataClasses() {
         var classCount = 0;
-        scanClasses { classes ->
-            classes
-                .map { parseAstClass(it.entityName(), it.bytes()) }
+        val classNames = mutableListOf<String>()
+        val sendClasses: (List<AstEntity>) -> Unit = { astEntities ->
+            astEntities
+                .onEach { if (isProbesDictionary) classNames.add(it.className()) }
                 .let(::InitDataPart)
                 .also(::sendMessage)
                 .also { classCount += it.astEntities.size }
         }
+        when {
+            scanCacheDir != null -> scanClassesCached(scanCacheDir, sendClasses)
+            isAstPipeline -> AstPipeline(send = sendClasses).process(::scanClasses)
+            else -> scanClasses { classes ->
+                classes.map { parseAstClass(it.entityName(), it.bytes()) }.let(sendClasses)
+            }
+        }
         logger.info { "Scanned $classCount classes" }
+        if (isProbesDictionary) {
+            val loadedClassNames = mutableListOf<String>()
+            DrillProbeArrayProvider.probeMetaContainer.forEachIndexed { _, descriptor ->
+                descriptor?.let { loadedClassNames.add(it.name) }
+            }
+            sendProbeDictionary(ProbeDictionary.of(loadedClassNames, classNames))
+        }
+    }
+
+    /**
+     * Scan the class path roots one by one, the classes of the roots which are not changed are taken from the cache.
+     * Every root is scanned by a separate scanner, so the cached classes of a root do not depend on the other roots,
+     * the classes found in several roots are sent once.
+     */
+    private fun scanClassesCached(
+        directory: File,
+        sendClasses: (List<AstEntity>) -> Unit,
+    ) = prepareScanning { packagePrefixes, additionalPaths ->
+        logger.info { "Scan cache: $directory" }
+        val cache = ScanCache(directory, packagePrefixes)
+        val scannedClasses = mutableSetOf<String>()
+        ClassLoadersScanner(packagePrefixes) {}.scanClassLoadersURIs(additionalPaths).forEach { uri ->
+            cache.getOrPut(uri) {
+                mutableListOf<AstEntity>().also { astEntities ->
+                    ClassLoadersScanner(packagePrefixes, scanBatchSize, isParallelScan) { classes ->
+                        classes.mapTo(astEntities) { parseAstClass(it.entityName(), it.bytes()) }
+                    }.scanClasses(setOf(uri))
+                }
+            }.filter { scannedClasses.add(it.className()) }.chunked(scanBatchSize).forEach(sendClasses)
+        }
+    }
+
+    /**
+     * Register the dictionary on the admin side, then switch the encoders to it
+     */
+    private fun sendProbeDictionary(dictionary: ProbeDictionary) {
+        send(dictionary.toMessage())
+        probeDictionary = dictionary
+        logger.info { "Coverage dictionary ${dictionary.id}: ${dictionary.bytes.size} bytes" }
     }
 }
 
@@ -251,21 +312,44 @@ fun Plugin.probeSender(
     sessionId: String,
     sendChanged: Boolean = false,
 ): RealtimeHandler = { execData ->
-    execData
-        .map(ExecDatum::toExecClassData)
-        .chunked(0xffff)
-        .map { chunk -> CoverDataPart(sessionId, chunk) }
-        .sumOf { message ->
-            logger.trace { "send to admin-part '$message'..." }
-            val encoded = ProtoBuf.encodeToByteArray(CoverMessage.serializer(), message)
-            val compressed = Zstd.compress(encoded)
-            send(Base64.getEncoder().encodeToString(compressed))
-            message.data.count()
-        }.takeIf { sendChanged && it > 0 }?.let {
-            sendMessage(SessionChanged(sessionId, it))
-        }
+    if (isBinaryProbesFormat) {
+        sendBinaryProbes(sessionId, execData)
+    } else {
+        sendProbes(sessionId, execData)
+    }.takeIf { sendChanged && it > 0 }?.let {
+        sendMessage(SessionChanged(sessionId, it))
+    }
 }
 
+private fun Plugin.sendProbes(
+    sessionId: String,
+    execData: Sequence<ExecDatum>,
+): Int = execData
+    .map(ExecDatum::toExecClassData)
+    .chunked(0xffff)
+    .map { chunk -> CoverDataPart(sessionId, chunk) }
+    .sumOf { message ->
+        logger.trace { "send to admin-part '$message'..." }
+        val encoded = ProtoBuf.encodeToByteArray(CoverMessage.serializer(), message)
+        val compressed = Zstd.compress(encoded)
+        send(Base64.getEncoder().encodeToString(compressed))
+        message.data.count()
+    }
+
+private fun Plugin.sendBinaryProbes(
+    sessionId: String,
+    execData: Sequence<ExecDatum>,
+): Int = execData
+    .chunked(0xffff)
+    .sumOf { chunk ->
+        logger.trace { "send to admin-part ${chunk.size} classes of session $sessionId..." }
+        if (isInternedProbeNames) {
+            val names = probeNames(sessionId)
+            synchronized(names) { send(encodeProbes(sessionId, chunk, names)) }
+        } else send(encodeProbes(sessionId, chunk))
+        chunk.size
+    }
+
 fun Plugin.sendMessage(message: CoverMessage) {
     val messageStr = json.encodeToString(CoverMessage.serializer(), message)
     logger.debug { "Send message $messageStr" }
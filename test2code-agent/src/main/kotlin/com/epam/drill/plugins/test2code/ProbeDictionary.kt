@@ -0,0 +1,85 @@
+/**
+ * Copyright 2020 - 2022 EPAM Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.epam.drill.plugins.test2code
+
+import com.github.luben.zstd.*
+import java.util.*
+import java.util.zip.*
+
+/**
+ * Compress the binary coverage messages with a dictionary of the scanned class names
+ */
+internal val isProbesDictionary = isBinaryProbesFormat &&
+    System.getProperty("drill.probes.dictionary")?.toBoolean() ?: false
+
+/**
+ * Header of the message which registers the dictionary on the admin side, it is followed by the dictionary content
+ */
+internal val BINARY_DICTIONARY_HEADER = byteArrayOf(0, 'D'.code.toByte(), 'D'.code.toByte(), 1)
+
+private const val MAX_DICTIONARY_SIZE = 110 shl 10
+
+private const val COMPRESSION_LEVEL = 3 //Zstd default
+
+/**
+ * The dictionary used by the encoders, it is set once the admin side has received it
+ */
+@Volatile
+internal var probeDictionary: ProbeDictionary? = null
+
+/**
+ * Raw content Zstd dictionary made of the class names sent in InitDataPart.
+ * The class names make up most of the coverage messages, so small realtime chunks compress
+ * against the dictionary instead of the few repetitions within the chunk.
+ * Only the loaded classes are sent in the coverage messages, so their names are taken into the dictionary first.
+ * @param bytes the content of the dictionary, the admin side identifies it by CRC32 as well
+ */
+internal class ProbeDictionary(val bytes: ByteArray) {
+    val id: Int = CRC32().apply { update(bytes) }.value.toInt()
+
+    val compress = ZstdDictCompress(bytes, COMPRESSION_LEVEL)
+
+    /**
+     * The message which registers the dictionary on the admin side
+     */
+    fun toMessage(): String = BINARY_PROBES_MARKER + Base64.getEncoder().encodeToString(
+        BINARY_DICTIONARY_HEADER + bytes
+    )
+
+    companion object {
+        /**
+         * Take the names of the loaded classes in the order of loading, then fill the rest of the dictionary
+         * with the other scanned classes, the names which do not fit are skipped.
+         * The taken names are sorted, so the names of a package are next to each other.
+         * @param loadedClassNames the names of the instrumented classes
+         * @param classNames the names of the scanned classes
+         */
+        fun of(
+            loadedClassNames: Collection<String>,
+            classNames: Collection<String> = emptyList(),
+        ): ProbeDictionary {
+            val names = mutableSetOf<String>()
+            var size = 0
+            for (name in loadedClassNames.asSequence() + classNames.asSequence()) {
+                if (size + name.length + 1 <= MAX_DICTIONARY_SIZE && names.add(name)) size += name.length + 1
+            }
+            return StringBuilder(size).run {
+                names.sorted().forEach { append(it).append('\n') }
+                ProbeDictionary(toString().toByteArray(Charsets.UTF_8))
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright 2020 - 2022 EPAM Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.epam.drill.plugins.test2code
+
+import com.github.luben.zstd.*
+import java.io.*
+import java.util.*
+
+/**
+ * Send the coverage in the binary format instead of ProtoBuf encoded [com.epam.drill.plugins.test2code.common.api.CoverDataPart]
+ */
+internal val isBinaryProbesFormat = System.getProperty("drill.probes.binary.format")?.toBoolean() ?: false
+
+/**
+ * First character of the binary coverage message, it is neither a JSON nor a Base64 character,
+ * so the admin side selects the decoder without decoding the message.
+ */
+internal const val BINARY_PROBES_MARKER = '~'
+
+/**
+ * Header of the binary coverage message, it is not compressed and followed by the flags of the message.
+ * The leading zero byte never starts a Zstd frame, so the admin side tells the formats apart.
+ */
+internal val BINARY_PROBES_HEADER = byteArrayOf(0, 'D'.code.toByte(), 'P'.code.toByte(), 1)
+
+/**
+ * The message is compressed with [ProbeDictionary], the flags are followed by the dictionary id
+ */
+internal const val PROBES_DICTIONARY = 1
+
+/**
+ * Classes and tests of the message are references to the names registered in [ProbeNames] of the session
+ */
+internal const val PROBES_INTERNED = 2
+
+private const val MAX_RETAINED_BUFFER_SIZE = 4 shl 20
+
+private val encoders = ThreadLocal.withInitial(::ProbeEncoder)
+
+/**
+ * Encode a chunk of the session coverage with the encoder of the current thread
+ * @param names the names of the session already sent to the admin side, null to send the names with every class
+ * @features Coverage data sending
+ */
+internal fun encodeProbes(
+    sessionId: String,
+    data: List<ExecDatum>,
+    names: ProbeNames? = null,
+): String = encoders.get().encode(sessionId, data, names)
+
+/**
+ * Streaming encoder of the coverage.
+ * The classes are written straight to the Zstd stream, the compressed bytes are encoded to Base64
+ * into a buffer reused between the messages, so the only full copy of the message is the resulting string.
+ * The message is [BINARY_PROBES_MARKER] followed by Base64 of [BINARY_PROBES_HEADER], the flags byte,
+ * the dictionary id in case of [PROBES_DICTIONARY] and the compressed part.
+ *
+ * Format of the compressed part:
+ * session id, number of classes, then for each class:
+ * id, class name, test name, test id, number of probes and the probes packed in bytes
+ * (little-endian bit order, followed by the set bit of the probe count as in BitSet probes).
+ *
+ * Format of the compressed part in case of [PROBES_INTERNED]:
+ * session id, number of new classes, id and name of each, number of new tests, index, name and id of each,
+ * number of classes, then for each class: id, index of the test, number of probes and the packed probes.
+ */
+internal class ProbeEncoder {
+    private val buffer = ReusableBuffer()
+
+    fun encode(
+        sessionId: String,
+        data: List<ExecDatum>,
+        names: ProbeNames? = null,
+    ): String = buffer.run {
+        reset()
+        write(BINARY_PROBES_MARKER.code)
+        val base64 = Base64.getEncoder().wrap(this)
+        val dictionary = probeDictionary
+        DataOutputStream(base64).apply {
+            write(BINARY_PROBES_HEADER)
+            val dictionaryFlag = if (dictionary != null) PROBES_DICTIONARY else 0
+            val internedFlag = if (names != null) PROBES_INTERNED else 0
+            write(dictionaryFlag or internedFlag)
+            dictionary?.let { writeInt(it.id) }
+        }
+        val compressed = ZstdOutputStream(base64).apply {
+            dictionary?.let { setDict(it.compress) }
+        }
+        DataOutputStream(BufferedOutputStream(compressed)).use { output ->
+            output.writeUTF(sessionId)
+            if (names != null) {
+                output.writeInterned(data, names)
+            } else {
+                output.writeInt(data.size)
+                data.forEach { datum ->
+                    output.writeLong(datum.id)
+                    output.writeUTF(datum.name)
+                    output.writeUTF(datum.testName)
+                    output.writeUTF(datum.testId)
+                    output.writeProbes(datum.probes.values)
+                }
+            }
+        }
+        asString().also { release() }
+    }
+
+    private fun DataOutputStream.writeInterned(data: List<ExecDatum>, names: ProbeNames) {
+        val classes = names.newClasses(data)
+        writeInt(classes.size)
+        classes.forEach { datum ->
+            writeLong(datum.id)
+            writeUTF(datum.name)
+        }
+        val tests = names.newTests(data)
+        writeInt(tests.size)
+        tests.forEach { (index, datum) ->
+            writeInt(index)
+            writeUTF(datum.testName)
+            writeUTF(datum.testId)
+        }
+        writeInt(data.size)
+        data.forEach { datum ->
+            writeLong(datum.id)
+            writeInt(names.test(datum))
+            writeProbes(datum.probes.values)
+        }
+    }
+
+    private fun DataOutputStream.writeProbes(values: BooleanArray) {
+        writeInt(values.size)
+        var byte = 0
+        for (index in 0..values.size) {
+            if (index == values.size || values[index]) {
+                byte = byte or (1 shl (index and 7))
+            }
+            if (index and 7 == 7 || index == values.size) {
+                write(byte)
+                byte = 0
+            }
+        }
+    }
+}
+
+private class ReusableBuffer : ByteArrayOutputStream(8192) {
+
+    fun asString() = String(buf, 0, count, Charsets.ISO_8859_1)
+
+    /**
+     * Do not retain the buffer grown by a burst of coverage
+     */
+    fun release() {
+        if (buf.size > MAX_RETAINED_BUFFER_SIZE) {
+            buf = ByteArray(8192)
+        }
+        reset()
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2020 - 2022 EPAM Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.epam.drill.plugins.test2code
+
+import java.util.concurrent.*
+
+/**
+ * Send class and test names once per session, the coverage messages refer to them by the class id and the test index
+ */
+internal val isInternedProbeNames = isBinaryProbesFormat &&
+    System.getProperty("drill.probes.interned.names")?.toBoolean() ?: false
+
+private val sessionNames = ConcurrentHashMap<String, ProbeNames>()
+
+internal fun probeNames(sessionId: String): ProbeNames = sessionNames.getOrPut(sessionId) { ProbeNames() }
+
+internal fun releaseProbeNames(sessionId: String) {
+    sessionNames.remove(sessionId)
+}
+
+/**
+ * Forget the sent names, e.g. after reconnect, since the admin side may have lost them
+ */
+internal fun resetProbeNames() {
+    sessionNames.clear()
+}
+
+/**
+ * Class and test names of a session already sent to the admin side.
+ * The names are registered while a message is encoded, so the message must be sent under the lock of the instance
+ * before any other message of the session refers to them.
+ */
+internal class ProbeNames {
+    private val classes = HashSet<Long>()
+
+    private val tests = HashMap<String, Int>()
+
+    /**
+     * Register the classes which are not sent yet
+     */
+    fun newClasses(data: List<ExecDatum>): List<ExecDatum> = data.filter { classes.add(it.id) }
+
+    /**
+     * Register the tests which are not sent yet
+     * @return the indices of the new tests with their first class data
+     */
+    fun newTests(data: List<ExecDatum>): List<Pair<Int, ExecDatum>> = data.mapNotNull { datum ->
+        if (datum.testId !in tests) {
+            val index = tests.size
+            tests[datum.testId] = index
+            index to datum
+        } else null
+    }
+
+    fun test(datum: ExecDatum): Int = tests.getValue(datum.testId)
+}
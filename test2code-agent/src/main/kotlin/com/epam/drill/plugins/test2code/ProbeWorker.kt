@@ -0,0 +1,123 @@
+/**
+ * Copyright 2020 - 2022 EPAM Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.epam.drill.plugins.test2code
+
+import kotlinx.coroutines.*
+import mu.KotlinLogging
+import java.util.concurrent.*
+import kotlin.coroutines.*
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Executor of the probe worker: "fixed" thread pool or "virtual" threads, the latter requires JDK 21+
+ */
+private val workerType = System.getProperty("drill.probes.worker.type") ?: "fixed"
+
+/**
+ * Number of threads of the fixed probe worker
+ */
+private val workerThreads = System.getProperty("drill.probes.worker.threads")?.toIntOrNull()?.coerceAtLeast(1) ?: 2
+
+private const val MIN_FLUSH_INTERVAL = 100L
+
+/**
+ * Interval of the realtime flush in milliseconds, at least [MIN_FLUSH_INTERVAL] so the flush loop does not spin
+ */
+internal val flushInterval = (System.getProperty("drill.probes.flush.interval")?.toLongOrNull() ?: 2000L).let {
+    it.coerceAtLeast(MIN_FLUSH_INTERVAL).also { interval ->
+        if (interval != it) logger.warn { "drill.probes.flush.interval=$it is too small, $interval ms is used" }
+    }
+}
+
+internal object ProbeWorker : CoroutineScope {
+    override val coroutineContext: CoroutineContext = run {
+        newExecutor().asCoroutineDispatcher() + SupervisorJob()
+    }
+
+    private fun newExecutor(): ExecutorService = when (workerType) {
+        "virtual" -> virtualExecutor() ?: fixedExecutor()
+        else -> fixedExecutor()
+    }
+
+    private fun fixedExecutor(): ExecutorService = Executors.newFixedThreadPool(workerThreads).also {
+        logger.info { "Probe worker: fixed thread pool of $workerThreads threads, flush interval $flushInterval ms" }
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor is looked up reflectively, since the agent targets JDK 8
+     */
+    private fun virtualExecutor(): ExecutorService? = runCatching {
+        Executors::class.java.getMethod("newVirtualThreadPerTaskExecutor").invoke(null) as ExecutorService
+    }.onSuccess {
+        logger.info { "Probe worker: virtual threads, flush interval $flushInterval ms" }
+    }.onFailure {
+        logger.warn { "Virtual threads are not available, fallback to the fixed thread pool: ${it.message}" }
+    }.getOrNull()
+}
+
+/**
+ * Flushes the realtime probes of all registered runtimes in one pass every [interval] ms.
+ * Each runtime is flushed in a separate coroutine, so sending of the sessions is spread over the worker threads.
+ * @features Coverage data sending
+ */
+internal class FlushScheduler(interval: Long = flushInterval) {
+    companion object {
+        /**
+         * The scheduler of the session runtimes of the agent
+         */
+        val default = FlushScheduler()
+    }
+
+    private val interval = interval.coerceAtLeast(MIN_FLUSH_INTERVAL)
+
+    private val runtimes: MutableSet<Runtime> = ConcurrentHashMap.newKeySet()
+
+    private val job = ProbeWorker.launch(start = CoroutineStart.LAZY) {
+        while (true) {
+            delay(interval)
+            flushAll()
+        }
+    }
+
+    fun register(runtime: Runtime) {
+        runtime.flushScheduler = this
+        runtimes.add(runtime)
+        job.start()
+    }
+
+    fun unregister(runtime: Runtime) {
+        runtimes.remove(runtime)
+    }
+
+    /**
+     * Stop the flush loop and forget the registered runtimes
+     */
+    fun close() {
+        job.cancel()
+        runtimes.clear()
+    }
+
+    suspend fun flushAll() = coroutineScope {
+        runtimes.forEach { runtime ->
+            launch {
+                runCatching(runtime::flush).onFailure {
+                    logger.error(it) { "Error while flushing realtime probes: ${it.message}" }
+                }
+            }
+        }
+    }
+}
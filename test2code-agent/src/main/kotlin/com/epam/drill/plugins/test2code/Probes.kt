@@ -20,9 +20,8 @@ import com.epam.drill.plugin.api.processing.*
 import com.epam.drill.plugins.test2code.common.api.*
 import kotlinx.atomicfu.*
 import kotlinx.collections.immutable.*
-import kotlinx.coroutines.*
+import java.util.*
 import java.util.concurrent.*
-import kotlin.coroutines.*
 import mu.KotlinLogging
 
 /**
@@ -33,9 +32,6 @@ typealias ProbeArrayProvider = (Long, Int, String, Int) -> AgentProbes
 
 typealias RealtimeHandler = (Sequence<ExecDatum>) -> Unit
 
-private const val CLASS_LIMIT_ERROR_MESSAGE = """ Attempting to add coverage for a class whose index is greater than
-    | the maximum.Increase the maximum value."""
-
 interface SessionProbeArrayProvider : ProbeArrayProvider {
 
     fun start(
@@ -63,7 +59,48 @@ data class ExecDatum(
     val probes: AgentProbes,
     val testName: String = "",
     val testId: String = "",
-)
+) {
+    /**
+     * Probes already sent to the admin side, used in the delta mode.
+     * A bit per probe, so it takes an eighth of the memory of the probes themselves.
+     */
+    internal var sentProbes: BitSet? = null
+}
+
+/**
+ * Copy the probes set since the previous call and remember them as sent.
+ * The realtime flush and the session collection may take the delta of the same class concurrently,
+ * so it is taken under the lock of the class data, and every probe is sent exactly once.
+ * @return the class data with new probes only or null if there are none
+ */
+internal fun ExecDatum.delta(): ExecDatum? = synchronized(this) {
+    val values = probes.values
+    val sent = sentProbes ?: BitSet(values.size).also { sentProbes = it }
+    var delta: BooleanArray? = null
+    for (index in values.indices) {
+        if (values[index] && !sent[index]) {
+            sent.set(index)
+            (delta ?: BooleanArray(values.size).also { delta = it })[index] = true
+        }
+    }
+    delta?.let { copy(probes = AgentProbes(values = it)) }
+}
+
+/**
+ * Move the set probes to a new array in a single pass, the probes of the class are cleared
+ * @return the class data with the moved probes or null if there are none
+ */
+internal fun ExecDatum.drain(): ExecDatum? {
+    val values = probes.values
+    var drained: BooleanArray? = null
+    for (index in values.indices) {
+        if (values[index]) {
+            values[index] = false
+            (drained ?: BooleanArray(values.size).also { drained = it })[index] = true
+        }
+    }
+    return drained?.let { copy(probes = AgentProbes(values = it)) }
+}
 
 class ProbeDescriptor(
     val id: Long,
@@ -89,32 +126,68 @@ internal fun ProbeDescriptor.toExecDatum(testName: String, testId: String) = Exe
     testId = testId
 )
 
-typealias ExecData = Array<ExecDatum?>
+/**
+ * Runtime data of a test indexed by the class number.
+ * Classes whose probes were set since the last collection are tracked in [dirtyClasses].
+ */
+class ExecData(val testKey: TestKey) : PagedArray<ExecDatum>() {
+    val dirtyClasses = DirtyClasses()
 
-//TODO EPMDJ-8255 Replace this "magic number" with a calculated value
-const val MAX_CLASS_COUNT = 50_000
+    override fun set(index: Int, value: ExecDatum?) {
+        super.set(index, value?.apply { probes.track(index, dirtyClasses) })
+    }
 
-internal object ProbeWorker : CoroutineScope {
-    override val coroutineContext: CoroutineContext = run {
-        Executors.newFixedThreadPool(2).asCoroutineDispatcher() + SupervisorJob()
+    override fun getOrPut(index: Int, defaultValue: () -> ExecDatum): ExecDatum = super.getOrPut(index) {
+        defaultValue().apply { probes.track(index, dirtyClasses) }
     }
+
+    /**
+     * Runtime data of the classes touched since the previous call
+     */
+    fun drainDirty(): Sequence<ExecDatum> = dirtyClasses.drain().asSequence().mapNotNull(::get)
 }
 
+/**
+ * Session runtime data, the realtime probes are sent by [FlushScheduler] once the runtime is registered there
+ */
 abstract class Runtime(
-    realtimeHandler: RealtimeHandler,
+    private val realtimeHandler: RealtimeHandler,
 ) {
-    private val job = ProbeWorker.launch {
-        while (true) {
-            delay(2000L)
-            realtimeHandler(collect())
-        }
-    }
+
+    /**
+     * Probes are not tracked for the classes instrumented in the inline mode,
+     * since their code does not call [AgentProbes.set], it is switched off by the provider of the runtime
+     */
+    @Volatile
+    internal var isDirtyTracking = true
 
     abstract fun collect(): Sequence<ExecDatum>
+
+    /**
+     * Collect only the classes touched since the previous collection, used by the realtime flush
+     */
+    abstract fun collectChanged(): Sequence<ExecDatum>
+
     abstract fun put(index: Int, updater: (TestKey) -> ExecDatum)
 
+    @Volatile
+    internal var flushScheduler: FlushScheduler? = null
+
+    private val flushLock = Any()
+
+    private var isClosed = false
+
+    internal fun flush() = synchronized(flushLock) {
+        if (!isClosed) realtimeHandler(collectChanged())
+    }
+
+    /**
+     * Stop the realtime flush of the runtime. The flush in progress is waited for,
+     * so it does not run concurrently with the final collection of the session.
+     */
     fun close() {
-        job.cancel()
+        flushScheduler?.unregister(this)
+        synchronized(flushLock) { isClosed = true }
     }
 }
 
@@ -124,6 +197,7 @@ abstract class Runtime(
  */
 class ExecRuntime(
     realtimeHandler: RealtimeHandler,
+    private val isLazy: Boolean = false,
 ) : Runtime(realtimeHandler) {
 
     private val logger = KotlinLogging.logger {}
@@ -132,12 +206,29 @@ class ExecRuntime(
     private val _completedTests = atomic(persistentListOf<String>())
     private val isPerformanceMode = System.getProperty("drill.probes.perf.mode")?.toBoolean() ?: false
 
+    /**
+     * Send only the probes set since the previous collection instead of the cumulative ones.
+     * The admin side merges the probes of the session, so the deltas add up to the same coverage.
+     */
+    private val isDeltaMode = System.getProperty("drill.probes.delta.mode")?.toBoolean() ?: false
+
     init {
         logger.debug { "drill.probes.perf.mode=$isPerformanceMode" }
+        logger.debug { "drill.probes.delta.mode=$isDeltaMode" }
     }
 
-    override fun collect(): Sequence<ExecDatum> = _execData.values.flatMap { data ->
-        data.filterNotNull().filter { datum -> datum.probes.values.any { it } }
+    override fun collect(): Sequence<ExecDatum> = collect(ExecData::asSequence)
+
+    override fun collectChanged(): Sequence<ExecDatum> = if (isDirtyTracking) {
+        collect(ExecData::drainDirty)
+    } else collect()
+
+    private fun collect(
+        datums: (ExecData) -> Sequence<ExecDatum>,
+    ): Sequence<ExecDatum> = _execData.values.flatMap { data ->
+        if (isDeltaMode) {
+            datums(data).mapNotNull(ExecDatum::delta)
+        } else datums(data).filter { datum -> datum.probes.values.any { it } }
     }.asSequence().also {
         val passedTest = _completedTests.getAndUpdate { it.clear() }
         if (isPerformanceMode) {
@@ -150,14 +241,17 @@ class ExecRuntime(
     fun getOrPut(
         testKey: TestKey,
         updater: () -> ExecData,
-    ): Array<ExecDatum?> = _execData.getOrPut(testKey) { updater() }
+    ): ExecData = _execData.getOrPut(testKey) { updater() }
 
+    /**
+     * Runtime data of the tests is not filled in the lazy mode, it is created when a test touches the class
+     */
     override fun put(
         index: Int,
         updater: (TestKey) -> ExecDatum,
-    ) = _execData.forEach { (testName, execDataset) ->
-        runCatching { execDataset[index] = updater(testName) }.onFailure {
-            logger.warn { CLASS_LIMIT_ERROR_MESSAGE }
+    ) {
+        if (!isLazy) _execData.forEach { (testName, execDataset) ->
+            execDataset[index] = updater(testName)
         }
     }
 
@@ -168,39 +262,29 @@ class GlobalExecRuntime(
     private val testName: String,
     realtimeHandler: RealtimeHandler,
 ) : Runtime(realtimeHandler) {
-    internal val execDatum = arrayOfNulls<ExecDatum?>(MAX_CLASS_COUNT)
-    private val logger = KotlinLogging.logger {}
+    internal val execDatum = ExecData(TestKey(testName, testName.id()))
 
     /**
      * Get probes from the completed tests
      * @features Coverage data sending
      */
-    override fun collect(): Sequence<ExecDatum> = execDatum.asSequence().filterNotNull().filter { datum ->
-        datum.probes.values.any { it }
-    }.map { datum ->
-        val probesToSend = datum.probes.values.copyOf()
-        probesToSend.forEachIndexed { index, value ->
-            if (value)
-                datum.probes.values[index] = false
-        }
-        datum.copy(
-            probes = AgentProbes(
-                values = probesToSend
-            )
-        )
-    }
+    override fun collect(): Sequence<ExecDatum> = execDatum.asSequence().flush()
+
+    override fun collectChanged(): Sequence<ExecDatum> = if (isDirtyTracking) {
+        execDatum.drainDirty().flush()
+    } else collect()
+
+    private fun Sequence<ExecDatum>.flush(): Sequence<ExecDatum> = mapNotNull(ExecDatum::drain)
 
     override fun put(index: Int, updater: (TestKey) -> ExecDatum) {
-        runCatching { execDatum[index] = updater(TestKey(testName, testName.id())) }.onFailure {
-            logger.warn { CLASS_LIMIT_ERROR_MESSAGE }
-        }
+        execDatum[index] = updater(execDatum.testKey)
     }
 
     fun get(num: Int) = execDatum[num]?.probes
 }
 
 class ProbeMetaContainer {
-    private val probesDescriptor = arrayOfNulls<ProbeDescriptor?>(MAX_CLASS_COUNT)
+    private val probesDescriptor = PagedArray<ProbeDescriptor>()
 
     fun addDescriptor(
         index: Int,
@@ -208,6 +292,8 @@ class ProbeMetaContainer {
         globalRuntime: GlobalExecRuntime?,
         runtimes: Collection<ExecRuntime>,
     ) {
+        //the class is retransformed, its runtime data is kept
+        if (probesDescriptor[index]?.id == probeDescriptor.id) return
         probesDescriptor[index] = probeDescriptor
 
         globalRuntime?.put(index) { (testName, testId) ->
@@ -241,7 +327,25 @@ open class SimpleSessionProbeArrayProvider(
 ) : SessionProbeArrayProvider {
 
     // TODO EPMDJ-8256 When application is async we must use this implementation «com.alibaba.ttl.TransmittableThreadLocal»
-    val requestThreadLocal = ThreadLocal<Array<ExecDatum?>>()
+    /**
+     * Runtime data of the test request bound to the thread, it is set only by [bindRequest] and [unbindRequest]
+     * which count the bound threads for the fast mode
+     */
+    private val requestThreadLocal = ThreadLocal<ExecData>()
+
+    /**
+     * In the fast mode the thread local is looked up only while at least one thread is bound to a test request,
+     * so the common case (no sessions or a global session) costs a couple of volatile reads per method entry
+     */
+    private val isFastMode = System.getProperty("drill.probes.fast.mode")?.toBoolean() ?: false
+
+    private val _boundRequests = atomic(0)
+
+    /**
+     * In the lazy mode runtime data of a test is created the first time the test touches a class,
+     * so the heap grows with the touched classes instead of all loaded classes
+     */
+    private val isLazyMode = System.getProperty("drill.probes.lazy.mode")?.toBoolean() ?: false
 
     val probeMetaContainer = ProbeMetaContainer()
 
@@ -252,6 +356,12 @@ open class SimpleSessionProbeArrayProvider(
     @Volatile
     var global: Pair<String, GlobalExecRuntime>? = null
 
+    /**
+     * Touched classes are tracked unless an instrumenter in the inline mode emits the probes of this provider
+     */
+    @Volatile
+    private var isDirtyTracking = true
+
     var defaultContext: AgentContext?
         get() = _defaultContext.value
         set(value) {
@@ -266,7 +376,12 @@ open class SimpleSessionProbeArrayProvider(
     @Volatile
     private var _globalContext: AgentContext? = null
 
-    private val stubProbes = StubAgentProbes()
+    /**
+     * Probes of the classes without a session. In the inline mode instrumented code stores into its values directly,
+     * so the stub grows up to the largest probe count requested
+     */
+    @Volatile
+    private var stubProbes = StubAgentProbes()
 
     override fun invoke(
         id: Long,
@@ -274,10 +389,67 @@ open class SimpleSessionProbeArrayProvider(
         name: String,
         probeCount: Int,
     ): AgentProbes = global?.second?.get(num)
-        ?: checkLocalProbes(num)
-        ?: stubProbes
+        ?: checkLocalProbes(id, num, name, probeCount)
+        ?: stubProbes(probeCount)
 
-    private fun checkLocalProbes(num: Int) = requestThreadLocal.get()?.get(num)?.probes
+    private fun stubProbes(probeCount: Int): AgentProbes = stubProbes.takeIf {
+        it.values.size >= probeCount
+    } ?: StubAgentProbes(probeCount).also { stubProbes = it }
+
+    private fun checkLocalProbes(
+        id: Long,
+        num: Int,
+        name: String,
+        probeCount: Int,
+    ) = if (!isFastMode || _boundRequests.value > 0) {
+        requestThreadLocal.get()?.let { execData ->
+            execData[num]?.probes ?: if (isLazyMode) {
+                execData.getOrPut(num) {
+                    ExecDatum(id, name, AgentProbes(probeCount), execData.testKey.first, execData.testKey.second)
+                }.probes
+            } else null
+        }
+    } else null
+
+    /**
+     * Create runtime data for a new test
+     * @features Running tests
+     */
+    fun newExecData(testKey: TestKey): ExecData = ExecData(testKey).apply {
+        if (!isLazyMode) fillFromMeta(testKey)
+    }
+
+    /**
+     * Stop tracking the touched classes in the current and new runtimes,
+     * called by the instrumenter in the inline mode since its probes are stored without [AgentProbes.set]
+     */
+    internal fun disableDirtyTracking() {
+        isDirtyTracking = false
+        global?.second?.isDirtyTracking = false
+        runtimes.values.forEach { it.isDirtyTracking = false }
+    }
+
+    /**
+     * Bind the current thread to the runtime data of a test request
+     * @features Running tests
+     */
+    fun bindRequest(execData: ExecData) {
+        if (requestThreadLocal.get() == null) {
+            _boundRequests.incrementAndGet()
+        }
+        requestThreadLocal.set(execData)
+    }
+
+    /**
+     * Unbind the current thread from the runtime data of a test request
+     * @features Running tests
+     */
+    fun unbindRequest() {
+        if (requestThreadLocal.get() != null) {
+            _boundRequests.decrementAndGet()
+            requestThreadLocal.remove()
+        }
+    }
 
     override fun start(
         sessionId: String,
@@ -346,8 +518,10 @@ open class SimpleSessionProbeArrayProvider(
 
     private fun add(sessionId: String, realtimeHandler: RealtimeHandler) {
         if (sessionId !in runtimes) {
-            val value = ExecRuntime(realtimeHandler)
+            val value = ExecRuntime(realtimeHandler, isLazyMode)
+            value.isDirtyTracking = isDirtyTracking
             runtimes[sessionId] = value
+            FlushScheduler.default.register(value)
         } else runtimes
     }
 
@@ -355,9 +529,11 @@ open class SimpleSessionProbeArrayProvider(
         val name = testName ?: DEFAULT_TEST_NAME
         val testId = name.id()
         val runtime = GlobalExecRuntime(name, realtimeHandler).apply {
+            isDirtyTracking = this@SimpleSessionProbeArrayProvider.isDirtyTracking
             execDatum.fillFromMeta(TestKey(name, testId))
         }
         global = sessionId to runtime
+        FlushScheduler.default.register(runtime)
     }
 
     private fun removeGlobal(): GlobalExecRuntime? = global?.copy()?.second?.apply {
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2020 - 2022 EPAM Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.epam.drill.plugins.test2code
+
+import com.epam.drill.common.classloading.*
+import com.epam.drill.plugin.api.processing.*
+import mu.KotlinLogging
+import java.util.concurrent.*
+import java.util.concurrent.atomic.*
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Number of classes retransformed at once, 0 retransforms all the classes of the package prefixes by a single call
+ */
+internal val retransformBatchSize = System.getProperty("drill.classes.retransform.batch.size")?.toIntOrNull() ?: 0
+
+/**
+ * Pause of a retransforming thread between the batches in milliseconds
+ */
+private val retransformPause = System.getProperty("drill.classes.retransform.pause")?.toLongOrNull() ?: 10L
+
+/**
+ * Number of threads retransforming the batches, the classes of different batches are instrumented in parallel
+ */
+private val retransformThreads = System.getProperty("drill.classes.retransform.threads")?.toIntOrNull()
+    ?.coerceAtLeast(1) ?: 1
+
+/**
+ * First character of the agent status message, the rest of the message is a text for the admin log
+ */
+internal const val AGENT_STATUS_MARKER = '!'
+
+/**
+ * Retransform the loaded classes of the package prefixes in batches of [retransformBatchSize] classes.
+ * The threads pause after each batch, so the application under test is not frozen for the whole retransformation.
+ * The progress is reported to the admin side after each batch.
+ */
+internal fun Plugin.retransformBatched() {
+    val packagePrefixes = Native.GetPackagePrefixes().split(", ")
+    val classes = Native.GetAllLoadedClasses().filter { it.isRetransformable(packagePrefixes) }
+    val batches = classes.chunked(retransformBatchSize)
+    val retransformed = AtomicInteger()
+    logger.info { "Retransforming ${classes.size} classes by ${batches.size} batches..." }
+    val executor = Executors.newFixedThreadPool(retransformThreads)
+    try {
+        batches.map { batch ->
+            executor.submit {
+                runCatching { Native.RetransformClasses(batch.size, batch.toTypedArray()) }.onFailure {
+                    logger.error(it) { "Error retransforming ${batch.size} classes" }
+                }
+                sendStatus("Retransformed ${retransformed.addAndGet(batch.size)}/${classes.size} classes")
+                Thread.sleep(retransformPause)
+            }
+        }.forEach { it.get() }
+    } finally {
+        executor.shutdown()
+    }
+    logger.info { "Retransformed ${classes.size} classes" }
+}
+
+private fun Plugin.sendStatus(status: String) = runCatching {
+    send(AGENT_STATUS_MARKER + status)
+}.onFailure { logger.debug { "Status is not sent: ${it.message}" } }
+
+/**
+ * Arrays, primitives and hidden classes, e.g. lambdas, cannot be retransformed
+ * and any of them would fail the whole batch
+ */
+private fun Class<*>.isRetransformable(packagePrefixes: List<String>): Boolean = !isArray && !isPrimitive &&
+    '/' !in name && "\$\$Lambda" !in name && ClassSource(name.replace('.', '/')).prefixMatches(packagePrefixes)
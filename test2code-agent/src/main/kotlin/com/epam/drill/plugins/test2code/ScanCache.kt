@@ -0,0 +1,156 @@
+/**
+ * Copyright 2020 - 2022 EPAM Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.epam.drill.plugins.test2code
+
+import com.epam.drill.plugins.test2code.checksum.*
+import com.epam.drill.plugins.test2code.common.api.*
+import com.github.luben.zstd.*
+import kotlinx.serialization.builtins.*
+import kotlinx.serialization.protobuf.*
+import mu.KotlinLogging
+import java.io.*
+import java.net.*
+import java.security.*
+import java.util.jar.*
+
+/**
+ * Directory of the scan cache, the classes are scanned without the cache if it is not set
+ */
+internal val scanCacheDir: File? = System.getProperty("drill.classes.scan.cache.dir")?.let(::File)
+
+/**
+ * Size limit of the scan cache directory, the least recently used entries above it are deleted
+ */
+internal val scanCacheMaxSize: Long = (System.getProperty("drill.classes.scan.cache.max.size.mb")?.toLongOrNull()
+    ?: 512) * 1024 * 1024
+
+private const val SCAN_CACHE_FORMAT = 2
+
+/**
+ * Version of the parser which produced the cached classes: the cache format, the agent build and the checksum mode.
+ * The agent build is identified by its implementation version and the size and modification time of its jar.
+ */
+internal val scanCacheVersion: String = ScanCache::class.java.run {
+    val agentJar = runCatching { File(protectionDomain.codeSource.location.toURI()) }.getOrNull()?.takeIf(File::isFile)
+    listOf(
+        SCAN_CACHE_FORMAT,
+        `package`?.implementationVersion,
+        agentJar?.let { "${it.length()}:${it.lastModified()}" },
+        isSinglePassChecksum
+    ).joinToString(":")
+}
+
+private val astEntitiesSerializer = ListSerializer(AstEntity.serializer())
+
+/**
+ * Persistent cache of the parsed classes of the class path roots, so restarts of the same build skip parsing.
+ * A root is identified by the parser version, its path, the package prefixes and:
+ * - for a jar, its size, modification time and the names and CRCs of the entries from the central directory,
+ *   the same for the jars of its manifest Class-Path, since the scanner reads them as a part of the root
+ * - for a directory, the path, size and modification time of every file
+ *
+ * The entries are Zstd compressed ProtoBuf lists of [AstEntity], written to a temporary file and renamed,
+ * so agents sharing the directory never read a partially written entry.
+ * Hits touch the entries, and the least recently used ones are deleted when the directory exceeds [maxSize].
+ */
+internal class ScanCache(
+    private val directory: File,
+    private val packagePrefixes: List<String>,
+    private val version: String = scanCacheVersion,
+    private val maxSize: Long = scanCacheMaxSize,
+) {
+    private val logger = KotlinLogging.logger {}
+
+    init {
+        directory.mkdirs()
+    }
+
+    /**
+     * Get the classes of the root from the cache or scan and cache them, the root is scanned without the cache
+     * if its key cannot be calculated
+     */
+    fun getOrPut(uri: URI, scan: () -> List<AstEntity>): List<AstEntity> {
+        val root = File(uri)
+        val key = runCatching { key(root) }.onFailure {
+            logger.warn { "Cannot calculate the scan cache key of ${root.absolutePath}: ${it.message}" }
+        }.getOrNull() ?: return scan()
+        val file = File(directory, "$key.ast")
+        return read(file)?.also {
+            file.setLastModified(System.currentTimeMillis())
+            logger.debug { "Scan cache hit: ${root.absolutePath}, ${it.size} classes" }
+        } ?: scan().also {
+            write(file, it)
+            evict()
+        }
+    }
+
+    private fun key(root: File): String = MessageDigest.getInstance("SHA-1").run {
+        update(version)
+        update(root.absolutePath)
+        packagePrefixes.forEach(::update)
+        if (root.isDirectory) {
+            root.walkTopDown().filter(File::isFile).forEach { file ->
+                update(file.path)
+                update("${file.length()}:${file.lastModified()}")
+            }
+        } else updateJar(root, mutableSetOf())
+        digest().joinToString("") { "%02x".format(it) }
+    }
+
+    private fun MessageDigest.updateJar(jar: File, visited: MutableSet<String>) {
+        if (!visited.add(jar.absolutePath)) return
+        update(jar.absolutePath)
+        update("${jar.length()}:${jar.lastModified()}")
+        val classPath = JarFile(jar, false).use { file ->
+            file.entries().asSequence().forEach { entry -> update("${entry.name}:${entry.crc}") }
+            file.manifest?.mainAttributes?.getValue(Attributes.Name.CLASS_PATH)
+        }
+        classPath?.split(" ")?.map { File(jar.parent, it) }?.forEach { file ->
+            if (file.isFile) updateJar(file, visited) else update("missing:${file.path}")
+        }
+    }
+
+    private fun MessageDigest.update(value: String) = update(value.toByteArray(Charsets.UTF_8))
+
+    private fun read(file: File): List<AstEntity>? = file.takeIf(File::exists)?.runCatching {
+        val bytes = ZstdInputStream(inputStream().buffered()).use { it.readBytes() }
+        ProtoBuf.decodeFromByteArray(astEntitiesSerializer, bytes)
+    }?.onFailure {
+        logger.warn { "Cannot read the scan cache entry ${file.name}: ${it.message}" }
+    }?.getOrNull()
+
+    private fun write(file: File, astEntities: List<AstEntity>) = runCatching {
+        val temp = File.createTempFile(file.nameWithoutExtension, ".tmp", directory)
+        temp.writeBytes(Zstd.compress(ProtoBuf.encodeToByteArray(astEntitiesSerializer, astEntities)))
+        if (!temp.renameTo(file)) temp.delete()
+    }.onFailure {
+        logger.warn { "Cannot write the scan cache entry ${file.name}: ${it.message}" }
+    }
+
+    /**
+     * Delete the least recently used entries which do not fit into [maxSize]
+     */
+    private fun evict() = runCatching {
+        var size = 0L
+        directory.listFiles { file -> file.extension == "ast" }.orEmpty().sortedByDescending(File::lastModified)
+            .forEach { file ->
+                size += file.length()
+                if (size > maxSize && file.delete()) logger.debug { "Scan cache entry evicted: ${file.name}" }
+            }
+    }.onFailure {
+        logger.warn { "Cannot evict the scan cache entries: ${it.message}" }
+    }
+}
@@ -18,8 +18,26 @@ package com.epam.drill.plugins.test2code.checksum
 import org.apache.bcel.classfile.ClassParser
 import org.apache.bcel.classfile.Method
 import org.jacoco.core.internal.data.CRC64
+import org.objectweb.asm.ClassReader
 import java.io.ByteArrayInputStream
 
+/**
+ * Calculate the checksums from the class read by ASM instead of parsing it with BCEL once more
+ */
+internal val isSinglePassChecksum = System.getProperty("drill.checksum.single.pass")?.toBoolean() ?: false
+
+/**
+ * Checksums of the methods of the class already read for the probe counting.
+ * The single pass calculation falls back to BCEL on malformed code, so the errors are reported the same way.
+ */
+internal fun calculateMethodsChecksums(
+    classReader: ClassReader,
+    classBytes: ByteArray,
+    className: String
+): Map<String, String> = classReader.takeIf { isSinglePassChecksum }?.run {
+    runCatching { methodsChecksums() }.getOrNull()
+} ?: calculateMethodsChecksums(classBytes, className)
+
 internal fun calculateMethodsChecksums(
     classBytes: ByteArray,
     className: String
@@ -21,7 +21,7 @@ import org.apache.bcel.util.*
 import java.io.*
 import java.util.concurrent.*
 
-private val ldcInstructions = listOf(
+internal val ldcInstructions = listOf(
     Const.LDC_W,
     Const.LDC2_W,
     Const.LDC_QUICK,
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2020 - 2022 EPAM Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.epam.drill.plugins.test2code.checksum
+
+private const val POLY64REV = -0x2800000000000000L //0xd800000000000000
+
+private const val V9: Int = 53
+
+private const val V1_8: Int = 52
+
+private val LOOKUP_TABLE = LongArray(0x100) { index ->
+    (0 until 8).fold(index.toLong()) { value, _ ->
+        if (value and 1L == 1L) (value ushr 1) xor POLY64REV else value ushr 1
+    }
+}
+
+/**
+ * Incremental version of [org.jacoco.core.internal.data.CRC64.classId] over the UTF-8 bytes of the appended text,
+ * the text itself is never materialized.
+ */
+internal class Crc64 {
+    private var sum = 0L
+    private var count = 0
+    private var sixth = -1
+
+    val value: Long get() = sum
+
+    fun reset() = apply {
+        sum = 0L
+        count = 0
+        sixth = -1
+    }
+
+    fun append(char: Char): Crc64 = apply {
+        encode(char.code)
+    }
+
+    fun append(value: Int): Crc64 = apply {
+        var rest = value.toLong()
+        if (rest < 0) {
+            update('-'.code)
+            rest = -rest
+        }
+        var divisor = 1L
+        while (divisor * 10 <= rest) {
+            divisor *= 10
+        }
+        while (divisor > 0) {
+            update('0'.code + (rest / divisor).toInt())
+            rest %= divisor
+            divisor /= 10
+        }
+    }
+
+    fun append(text: CharSequence): Crc64 = apply {
+        encode(text, escape = false)
+    }
+
+    /**
+     * Appends the text the way BCEL prints string constants, with the control characters and quotes escaped
+     */
+    fun appendEscaped(text: CharSequence): Crc64 = apply {
+        encode(text, escape = true)
+    }
+
+    private fun encode(text: CharSequence, escape: Boolean) {
+        var i = 0
+        while (i < text.length) {
+            val char = text[i]
+            when {
+                escape && char == '\n' -> append("\\n")
+                escape && char == '\r' -> append("\\r")
+                escape && char == '\t' -> append("\\t")
+                escape && char == '\b' -> append("\\b")
+                escape && char == '"' -> append("\\\"")
+                char.isHighSurrogate() && i + 1 < text.length && text[i + 1].isLowSurrogate() -> {
+                    encode(Character.toCodePoint(char, text[++i]))
+                }
+                else -> encode(char.code)
+            }
+            i++
+        }
+    }
+
+    private fun encode(codePoint: Int) = when {
+        codePoint < 0x80 -> update(codePoint)
+        codePoint < 0x800 -> {
+            update(0xc0 or (codePoint shr 6))
+            update(0x80 or (codePoint and 0x3f))
+        }
+        codePoint in Char.MIN_SURROGATE.code..Char.MAX_SURROGATE.code -> update('?'.code) //unpaired, as String.toByteArray
+        codePoint < 0x10000 -> {
+            update(0xe0 or (codePoint shr 12))
+            update(0x80 or (codePoint shr 6 and 0x3f))
+            update(0x80 or (codePoint and 0x3f))
+        }
+        else -> {
+            update(0xf0 or (codePoint shr 18))
+            update(0x80 or (codePoint shr 12 and 0x3f))
+            update(0x80 or (codePoint shr 6 and 0x3f))
+            update(0x80 or (codePoint and 0x3f))
+        }
+    }
+
+    private fun update(byte: Int) {
+        //CRC64.classId replaces the Java 9 class file version with Java 8 one, any 8+ bytes input is affected
+        val value = if (count == 7 && sixth == 0 && byte == V9) V1_8 else byte
+        if (count == 6) {
+            sixth = byte
+        }
+        sum = (sum ushr 8) xor LOOKUP_TABLE[(sum.toInt() xor value) and 0xff]
+        count++
+    }
+}
@@ -0,0 +1,267 @@
+/**
+ * Copyright 2020 - 2022 EPAM Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.epam.drill.plugins.test2code.checksum
+
+import org.apache.bcel.*
+import org.apache.bcel.classfile.*
+import org.objectweb.asm.*
+import java.io.*
+
+private const val CODE_ATTRIBUTE = "Code"
+
+/**
+ * Calculates the same checksums as [calculateMethodsChecksums] from the class already read by ASM.
+ * The code of each method is walked once and the text [codeToString] would produce
+ * is hashed on the fly, so neither BCEL model nor the intermediate strings are created.
+ */
+internal fun ClassReader.methodsChecksums(): Map<String, String> {
+    val chars = CharArray(maxStringLength)
+    val hasher = CodeHasher(this, chars)
+    var offset = header + 6 //access_flags, this_class, super_class
+    offset += 2 + readUnsignedShort(offset) * 2 //interfaces
+    repeat(readUnsignedShort(offset).also { offset += 2 }) { //fields
+        offset = skipAttributes(offset + 6)
+    }
+    val checksums = HashMap<String, String>()
+    repeat(readUnsignedShort(offset).also { offset += 2 }) {
+        val name = readUTF8(offset + 2, chars)
+        val descriptor = readUTF8(offset + 4, chars)
+        var attribute = offset + 8
+        repeat(readUnsignedShort(offset + 6)) {
+            if (readUTF8(attribute, chars) == CODE_ATTRIBUTE) {
+                val start = attribute + 14 //name, length, max_stack, max_locals, code_length
+                checksums[methodSignature(name, descriptor)] = hasher.checksum(start, start + readInt(attribute + 10))
+            }
+            attribute += 6 + readInt(attribute + 2)
+        }
+        offset = attribute
+    }
+    return checksums
+}
+
+private fun ClassReader.skipAttributes(offset: Int): Int {
+    var attribute = offset + 2
+    repeat(readUnsignedShort(offset)) {
+        attribute += 6 + readInt(attribute + 2)
+    }
+    return attribute
+}
+
+private fun methodSignature(name: String, descriptor: String) = "${name}/${
+    Type.getArgumentTypes(descriptor).joinToString { it.className }
+}/${Type.getReturnType(descriptor).className}"
+
+/**
+ * Mirrors [codeToString] instruction by instruction, including the parsing of WIDE and INVOKEDYNAMIC operands.
+ * Unlike [ClassReader] reads, any read past the code throws, as [ByteSequence] does.
+ */
+private class CodeHasher(
+    private val reader: ClassReader,
+    private val chars: CharArray
+) {
+    private val crc = Crc64()
+    private var start = 0
+    private var end = 0
+    private var offset = 0
+
+    private val index get() = offset - start
+
+    fun checksum(start: Int, end: Int): String {
+        this.start = start
+        this.end = end
+        offset = start
+        crc.reset()
+        while (offset < end) {
+            instruction()
+            crc.append('\n')
+        }
+        return crc.value.toString(Character.MAX_RADIX)
+    }
+
+    private fun instruction() {
+        val opcode = readUnsignedByte().toShort()
+        crc.append(Const.getOpcodeName((if (opcode in ldcInstructions) Const.LDC else opcode).toInt()))
+        var defaultOffset = 0
+        var padding = 0
+        if (opcode == Const.TABLESWITCH || opcode == Const.LOOKUPSWITCH) {
+            padding = (4 - index % 4) % 4
+            repeat(padding) { readByte() }
+            defaultOffset = readInt()
+        }
+        when (opcode) {
+            Const.TABLESWITCH -> {
+                val low = readInt()
+                val high = readInt()
+                val base = index - 12 - padding - 1
+                crc.append("\tdefault = ").append(defaultOffset + base).append(", low = ").append(low)
+                    .append(", high = ").append(high).append("(")
+                val size = high - low + 1
+                if (size < 0) throw NegativeArraySizeException("$size")
+                for (i in 0 until size) {
+                    crc.append(base + readInt())
+                    if (i < size - 1) crc.append(", ")
+                }
+                crc.append(")")
+            }
+            Const.LOOKUPSWITCH -> {
+                val npairs = readInt()
+                val base = index - 8 - padding - 1
+                if (npairs < 0) throw NegativeArraySizeException("$npairs")
+                crc.append("\tdefault = ").append(defaultOffset + base).append(", npairs = ").append(npairs)
+                    .append(" (")
+                for (i in 0 until npairs) {
+                    val match = readInt()
+                    crc.append("(").append(match).append(", ").append(base + readInt()).append(")")
+                    if (i < npairs - 1) crc.append(", ")
+                }
+                crc.append(")")
+            }
+            Const.GOTO, Const.IFEQ, Const.IFGE, Const.IFGT,
+            Const.IFLE, Const.IFLT, Const.JSR, Const.IFNE,
+            Const.IFNONNULL, Const.IFNULL, Const.IF_ACMPEQ,
+            Const.IF_ACMPNE, Const.IF_ICMPEQ, Const.IF_ICMPGE,
+            Const.IF_ICMPGT, Const.IF_ICMPLE, Const.IF_ICMPLT,
+            Const.IF_ICMPNE -> readShort()
+            Const.GOTO_W, Const.JSR_W -> readInt()
+            //the wide flag of codeToString never outlives the WIDE instruction, so the indices are always one byte
+            Const.ALOAD, Const.ASTORE, Const.DLOAD, Const.DSTORE, Const.FLOAD, Const.FSTORE,
+            Const.ILOAD, Const.ISTORE, Const.LLOAD, Const.LSTORE, Const.RET -> {
+                crc.append("\t\t%").append(readUnsignedByte())
+            }
+            Const.WIDE -> crc.append("\t(wide)")
+            Const.NEWARRAY -> crc.append("\t\t<").append(Const.getTypeName(readByte())).append(">")
+            Const.GETFIELD, Const.GETSTATIC, Const.PUTFIELD, Const.PUTSTATIC -> {
+                crc.append("\t\t")
+                constant(readUnsignedShort(), Const.CONSTANT_Fieldref)
+            }
+            Const.NEW, Const.CHECKCAST -> {
+                crc.append("\t\t<")
+                constant(readUnsignedShort(), Const.CONSTANT_Class)
+                crc.append(">")
+            }
+            Const.INSTANCEOF -> {
+                crc.append("\t<")
+                constant(readUnsignedShort(), Const.CONSTANT_Class)
+                crc.append(">")
+            }
+            Const.INVOKESPECIAL, Const.INVOKESTATIC -> {
+                crc.append("\t")
+                constant(readUnsignedShort())
+            }
+            Const.INVOKEVIRTUAL -> {
+                crc.append("\t")
+                constant(readUnsignedShort(), Const.CONSTANT_Methodref)
+            }
+            Const.INVOKEINTERFACE -> {
+                val index = readUnsignedShort()
+                val nargs = readUnsignedByte()
+                crc.append("\t")
+                constant(index, Const.CONSTANT_InterfaceMethodref)
+                crc.append(nargs).append("\t").append(readUnsignedByte())
+            }
+            Const.INVOKEDYNAMIC -> readUnsignedShort()
+            Const.LDC_W, Const.LDC2_W -> {
+                crc.append("\t\t")
+                constant(readUnsignedShort())
+            }
+            Const.LDC -> {
+                crc.append("\t\t")
+                constant(readUnsignedByte())
+            }
+            Const.ANEWARRAY -> {
+                crc.append("\t\t<")
+                constant(readUnsignedShort(), Const.CONSTANT_Class)
+                crc.append(">")
+            }
+            Const.MULTIANEWARRAY -> {
+                val index = readUnsignedShort()
+                val dimensions = readUnsignedByte()
+                crc.append("\t<")
+                constant(index, Const.CONSTANT_Class)
+                crc.append(">\t").append(dimensions)
+            }
+            Const.IINC -> {
+                val vindex = readUnsignedByte()
+                crc.append("\t\t%").append(vindex).append("\t").append(readByte())
+            }
+            else -> if (Const.getNoOfOperands(opcode.toInt()) > 0) {
+                for (i in 0 until Const.getOperandTypeCount(opcode.toInt())) {
+                    crc.append("\t\t")
+                    when (Const.getOperandType(opcode.toInt(), i)) {
+                        Const.T_BYTE.toShort() -> crc.append(readByte())
+                        Const.T_SHORT.toShort() -> crc.append(readShort())
+                        Const.T_INT.toShort() -> crc.append(readInt())
+                        else -> throw IllegalStateException("Unreachable default case reached!")
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends the constant as [ConstantPool.constantToString] prints it
+     */
+    private fun constant(index: Int, expectedTag: Byte? = null) {
+        val item = reader.getItem(index)
+        val tag = reader.readByte(item - 1).toByte()
+        if (expectedTag != null && tag != expectedTag) {
+            throw ClassFormatException("Expected class `${Const.getConstantName(expectedTag.toInt())}' at index $index")
+        }
+        when (tag) {
+            Const.CONSTANT_Class, Const.CONSTANT_Module, Const.CONSTANT_Package -> {
+                crc.append(reader.readUTF8(item, chars).replace('/', '.'))
+            }
+            Const.CONSTANT_String -> crc.append('"').appendEscaped(reader.readUTF8(item, chars)).append('"')
+            Const.CONSTANT_Integer -> crc.append(reader.readInt(item))
+            Const.CONSTANT_Float -> crc.append(Float.fromBits(reader.readInt(item)).toString())
+            Const.CONSTANT_Long -> crc.append(reader.readLong(item).toString())
+            Const.CONSTANT_Double -> crc.append(Double.fromBits(reader.readLong(item)).toString())
+            Const.CONSTANT_NameAndType -> {
+                crc.append(reader.readUTF8(item, chars)).append(" ").append(reader.readUTF8(item + 2, chars))
+            }
+            Const.CONSTANT_Fieldref, Const.CONSTANT_Methodref, Const.CONSTANT_InterfaceMethodref -> {
+                constant(reader.readUnsignedShort(item), Const.CONSTANT_Class)
+                crc.append('.')
+                constant(reader.readUnsignedShort(item + 2), Const.CONSTANT_NameAndType)
+            }
+            Const.CONSTANT_MethodHandle -> {
+                crc.append(Const.getMethodHandleName(reader.readByte(item))).append(" ")
+                constant(reader.readUnsignedShort(item + 1))
+            }
+            Const.CONSTANT_MethodType -> crc.append(reader.readUTF8(item, chars))
+            Const.CONSTANT_Dynamic, Const.CONSTANT_InvokeDynamic -> {
+                crc.append(reader.readUnsignedShort(item)).append(":")
+                constant(reader.readUnsignedShort(item + 2), Const.CONSTANT_NameAndType)
+            }
+            else -> throw IllegalArgumentException("Unknown constant type $tag")
+        }
+    }
+
+    private fun next(size: Int): Int = offset.also {
+        if (end - it < size) throw EOFException()
+        offset += size
+    }
+
+    private fun readUnsignedByte(): Int = reader.readByte(next(1))
+
+    private fun readByte(): Int = reader.readByte(next(1)).toByte().toInt()
+
+    private fun readUnsignedShort(): Int = reader.readUnsignedShort(next(2))
+
+    private fun readShort(): Int = reader.readShort(next(2)).toInt()
+
+    private fun readInt(): Int = reader.readInt(next(4))
+}
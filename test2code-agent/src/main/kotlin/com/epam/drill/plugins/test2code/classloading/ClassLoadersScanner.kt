@@ -19,17 +19,20 @@ import java.io.File
 import java.net.URI
 import java.net.URL
 import java.net.URLClassLoader
+import java.util.concurrent.Callable
+import java.util.concurrent.ForkJoinPool
 import mu.KotlinLogging
 import com.epam.drill.common.classloading.ClassSource
 
 class ClassLoadersScanner(
     packagePrefixes: List<String>,
     classesBufferSize: Int = 50,
+    private val isParallel: Boolean = false,
     transfer: (Set<ClassSource>) -> Unit
 ) {
 
     private val logger = KotlinLogging.logger {}
-    private val classPathScanner = ClassPathScanner(packagePrefixes, classesBufferSize, transfer)
+    private val classPathScanner = ClassPathScanner(packagePrefixes, classesBufferSize, isParallel, transfer)
 
     private val getOrLogFail: Result<URI>.() -> URI? = {
         this.onFailure { logger.error(it) { "ClassLoadersScanner: error handling classpath URI" } }
@@ -44,12 +47,16 @@ class ClassLoadersScanner(
 
     fun scanClassLoadersURIs() = scanClassLoadersURIs(scanClassLoaders())
 
-    fun scanClasses(uris: Set<URI>) = uris.fold(0, ::addClasses).apply { classPathScanner.transferBuffer() }
+    fun scanClasses(uris: Set<URI>) = uris.let {
+        if (isParallel) scanClassesParallel(it) else it.fold(0, ::addClasses)
+    }.apply { classPathScanner.transferBuffer() }
 
     fun scanClasses() = scanClasses(scanClassLoadersURIs())
 
-    fun scanClasses(additionalPaths: List<String>) = additionalPaths.run {
-        scanClasses(scanClassLoadersURIs() + this.map(::File).filter(File::exists).map(File::toURI))
+    fun scanClasses(additionalPaths: List<String>) = scanClasses(scanClassLoadersURIs(additionalPaths))
+
+    fun scanClassLoadersURIs(additionalPaths: List<String>) = additionalPaths.run {
+        scanClassLoadersURIs() + this.map(::File).filter(File::exists).map(File::toURI)
     }
 
     private fun addClassLoaderWithParents(loaders: MutableSet<ClassLoader>, classloader: ClassLoader) = loaders.apply {
@@ -78,6 +85,15 @@ class ClassLoadersScanner(
 
     private fun addClasses(count: Int, uri: URI) = count + classPathScanner.scanURI(uri)
 
+    private fun scanClassesParallel(uris: Set<URI>) = ForkJoinPool(Runtime.getRuntime().availableProcessors()).run {
+        logger.debug { "ClassLoadersScanner: scanning ${uris.size} URIs in parallel, parallelism: $parallelism" }
+        try {
+            submit(Callable { uris.parallelStream().mapToInt(classPathScanner::scanURI).sum() }).get()
+        } finally {
+            shutdown()
+        }
+    }
+
     private fun getSystemClassPath() = System.getProperty("java.class.path").split(File.pathSeparator).map(::File)
         .filter(File::exists).map(File::toURI)
 
@@ -16,11 +16,15 @@
 package com.epam.drill.plugins.test2code.classloading
 
 import java.io.ByteArrayInputStream
+import java.io.DataInputStream
 import java.io.File
 import java.net.URI
+import java.util.concurrent.ConcurrentHashMap
 import java.util.jar.Attributes
 import java.util.jar.JarEntry
+import java.util.jar.JarFile
 import java.util.jar.JarInputStream
+import java.util.zip.ZipEntry
 import org.objectweb.asm.ClassReader
 import mu.KotlinLogging
 import com.epam.drill.common.classloading.ClassSource
@@ -30,24 +34,42 @@ private const val PREFIX_WEB_APP = "WEB-INF/classes/"
 private const val PACKAGE_DRILL = "com/epam/drill"
 private const val PACKAGE_TTL = "com/alibaba/ttl"
 private const val JAR_BUFFER_SIZE = 256 * 1024
+private const val EOCD_SIGNATURE = 0x06054b50
+private const val CEN_SIGNATURE = 0x02014b50
+private const val EOCD_SIZE = 22
+private const val CEN_SIZE = 46
+private const val MAX_ZIP_COMMENT_SIZE = 0xffff
 
+/**
+ * Scans directories and jar files for the classes of the package prefixes.
+ * In the parallel mode the scanning is supposed to run in a fork-join pool: jar files are opened with random access
+ * and their entries are scanned in parallel, nested jars are streamed without reading them into memory.
+ * The transfer function is called under the lock of the buffer, so it is never called concurrently.
+ * Names of the entries are matched against the package prefixes before reading the bytes,
+ * nested jars are skipped if their central directory has no matching entries: in the parallel mode it is read
+ * only from the jars stored without compression, in the sequential mode from the bytes of the streamed jar.
+ */
 class ClassPathScanner(
     private val packagePrefixes: List<String>,
     private val classesBufferSize: Int,
+    private val isParallel: Boolean = false,
     private val transfer: (Set<ClassSource>) -> Unit
 ) {
 
     private val logger = KotlinLogging.logger {}
-    private val scannedJarFiles = mutableSetOf<String>()
-    private val scannedClasses = mutableSetOf<String>()
+    private val scannedJarFiles: MutableSet<String> = ConcurrentHashMap.newKeySet()
+    private val scannedClasses: MutableSet<String> = ConcurrentHashMap.newKeySet()
     private val scannedBuffer = mutableSetOf<ClassSource>()
+    private val prefixTrie = PrefixTrie(packagePrefixes.filterNot { it.startsWith("!") })
 
     private val getOrLogFail: Result<Int>.() -> Int = {
         this.onFailure { logger.error(it) { "ClassPathScanner: error handling class file" } }
         this.getOrDefault(0)
     }
 
-    fun transferBuffer() = scannedBuffer.takeIf(Collection<ClassSource>::isNotEmpty)?.let(transfer)
+    fun transferBuffer() = synchronized(scannedBuffer) {
+        scannedBuffer.takeIf(Collection<ClassSource>::isNotEmpty)?.let(transfer)
+    }
 
     fun scanURI(uri: URI) = File(uri).takeIf(File::exists)?.let(::scanFile) ?: 0
 
@@ -55,11 +77,20 @@ class ClassPathScanner(
 
     private fun scanDirectory(file: File) = file.run {
         val isClassFile: (File) -> Boolean = { it.isFile && it.extension == "class" }
+        val isDirectoryAccepted: (File) -> Boolean = {
+            it.toRelativeString(this).replace(File.separatorChar, '/').let { path ->
+                path.isEmpty() || isPathAccepted("$path/")
+            }
+        }
         logger.debug { "ClassPathScanner: scanning directory: ${this.absolutePath}" }
-        this.walkTopDown().filter(isClassFile).sumOf { scanClassFile(it, this).getOrLogFail() }
+        this.walkTopDown().onEnter(isDirectoryAccepted).filter(isClassFile).let { files ->
+            if (isParallel) {
+                files.toList().parallelStream().mapToInt { scanClassFile(it, this).getOrLogFail() }.sum()
+            } else files.sumOf { scanClassFile(it, this).getOrLogFail() }
+        }
     }
 
-    private fun scanJarFile(file: File): Result<Int> = file.runCatching {
+    private fun scanJarFile(file: File): Result<Int> = if (isParallel) scanZipFile(file) else file.runCatching {
         val isNotScanned: (File) -> Boolean = { !scannedJarFiles.contains(it.absolutePath) }
         val fileToStream: (File) -> JarInputStream = { JarInputStream(it.inputStream().buffered(JAR_BUFFER_SIZE)) }
         val pathToFile: (String) -> File? = { File(this.parent, it).takeIf(File::exists) }
@@ -78,14 +109,76 @@ class ClassPathScanner(
         var jarEntry = this.nextJarEntry
         while (jarEntry != null) {
             when (jarEntry.takeUnless(JarEntry::isDirectory)?.name?.substringAfterLast('.')) {
-                "jar", "war", "rar" -> scanned += scanJarEntry(jarEntry, this.readBytes()).getOrLogFail()
-                "class" -> scanned += scanClassEntry(jarEntry, this.readBytes()).getOrLogFail()
+                "jar", "war", "rar" -> this.readBytes().let { bytes ->
+                    if (!isWithoutAcceptedEntries(jarEntry.name) { bytes.zipEntryNames() }) {
+                        scanned += scanJarEntry(jarEntry, bytes).getOrLogFail()
+                    }
+                }
+                "class" -> if (isEntryNameAccepted(jarEntry.name)) {
+                    scanned += scanClassEntry(jarEntry, this.readBytes()).getOrLogFail()
+                }
             }
             jarEntry = this.nextJarEntry
         }
         scanned
     }
 
+    private fun scanZipFile(file: File): Result<Int> = file.runCatching {
+        val pathToFile: (String) -> File? = { File(this.parent, it).takeIf(File::exists) }
+        logger.debug { "ClassPathScanner: scanning file: ${this.absolutePath}" }
+        this.takeIf { scannedJarFiles.add(it.absolutePath) }?.let { JarFile(it, false) }?.use { jar ->
+            val scanned = jar.stream().parallel().mapToInt { scanZipEntry(jar, it).getOrLogFail() }.sum()
+            scanned + (jar.manifest?.mainAttributes?.getValue(Attributes.Name.CLASS_PATH)?.split(" ")
+                ?.mapNotNull(pathToFile)?.parallelStream()?.mapToInt { scanJarFile(it).getOrLogFail() }?.sum() ?: 0)
+        } ?: 0
+    }
+
+    private fun scanZipEntry(jar: JarFile, entry: JarEntry): Result<Int> = entry.runCatching {
+        when (this.takeUnless(JarEntry::isDirectory)?.name?.substringAfterLast('.')) {
+            "jar", "war", "rar" -> if (!isWithoutAcceptedEntries(this.name) { jar.nestedEntryNames(this) }) {
+                logger.debug { "ClassPathScanner: scanning jar entry: ${this.name}" }
+                JarInputStream(jar.getInputStream(this).buffered(JAR_BUFFER_SIZE)).use(::scanJarInputStream)
+            } else 0
+            "class" -> if (isEntryNameAccepted(this.name)) {
+                jar.getInputStream(this).use { scanClassEntry(this, it.readBytes()) }.getOrLogFail()
+            } else 0
+            else -> 0
+        }
+    }
+
+    /**
+     * Check the entry names of the nested jar before scanning its entries
+     * @param entryNames the names from the central directory or null if it cannot be read
+     */
+    private fun isWithoutAcceptedEntries(entryName: String, entryNames: () -> List<String>?) = runCatching {
+        entryNames()
+    }.getOrNull()?.none { name ->
+        when (name.substringAfterLast('.')) {
+            "jar", "war", "rar" -> true
+            "class" -> isEntryNameAccepted(name)
+            else -> false
+        }
+    }?.also { skipped ->
+        if (skipped) logger.debug { "ClassPathScanner: skipping jar entry without matching classes: $entryName" }
+    } ?: false
+
+    private val isEntryNameAccepted: (String) -> Boolean = { name ->
+        val start = when {
+            name.startsWith(PREFIX_WEB_APP) -> PREFIX_WEB_APP.length
+            name.startsWith(PREFIX_SPRING_BOOT) -> PREFIX_SPRING_BOOT.length
+            else -> 0
+        }
+        prefixTrie.matches(name, start)
+    }
+
+    private val isPathAccepted: (String) -> Boolean = { path ->
+        PREFIX_WEB_APP.startsWith(path) || PREFIX_SPRING_BOOT.startsWith(path) || when {
+            path.startsWith(PREFIX_WEB_APP) -> prefixTrie.mayMatch(path, PREFIX_WEB_APP.length)
+            path.startsWith(PREFIX_SPRING_BOOT) -> prefixTrie.mayMatch(path, PREFIX_SPRING_BOOT.length)
+            else -> prefixTrie.mayMatch(path)
+        }
+    }
+
     private val isPrefixMatches: (ClassSource) -> Boolean = { it.prefixMatches(packagePrefixes) }
     private val isClassAccepted: (ClassSource) -> Boolean = {
         !it.entityName().contains('$') &&
@@ -125,10 +218,63 @@ class ClassPathScanner(
     private fun addClassToScanned(classSource: ClassSource): Int {
         val isBufferFilled: (Set<ClassSource>) -> Boolean = { it.size >= classesBufferSize }
         logger.trace { "ClassPathScanner: found class: ${classSource.entityName()}" }
-        scannedClasses.add(classSource.entityName())
-        scannedBuffer.add(classSource)
-        scannedBuffer.takeIf(isBufferFilled)?.also(transfer)?.clear()
+        if (!scannedClasses.add(classSource.entityName())) return 0
+        synchronized(scannedBuffer) {
+            scannedBuffer.add(classSource)
+            scannedBuffer.takeIf(isBufferFilled)?.also(transfer)?.clear()
+        }
         return 1
     }
 
 }
+
+/**
+ * Read the entry names from the central directory of a jar nested in the jar file.
+ * Only jars stored without compression are read, skipping to the central directory does not inflate them.
+ * @return the entry names or null if the central directory cannot be read this way
+ */
+internal fun JarFile.nestedEntryNames(entry: JarEntry): List<String>? = entry.takeIf {
+    it.method == ZipEntry.STORED
+}?.let { zipEntryNames(it.size) { offset, length -> readNested(entry, offset, length) } }
+
+/**
+ * Read the entry names from the central directory of a jar read into memory
+ * @return the entry names or null if the central directory cannot be read
+ */
+internal fun ByteArray.zipEntryNames(): List<String>? = zipEntryNames(size.toLong()) { offset, length ->
+    copyOfRange(offset.toInt(), offset.toInt() + length)
+}
+
+private inline fun zipEntryNames(size: Long, read: (Long, Int) -> ByteArray): List<String>? {
+    if (size < EOCD_SIZE) return null
+    val tailSize = minOf(size, (EOCD_SIZE + MAX_ZIP_COMMENT_SIZE).toLong()).toInt()
+    val tail = read(size - tailSize, tailSize)
+    val eocd = (tailSize - EOCD_SIZE downTo 0).firstOrNull { tail.intAt(it) == EOCD_SIGNATURE } ?: return null
+    val count = tail.shortAt(eocd + 10)
+    val directorySize = tail.intAt(eocd + 12).toLong() and 0xffffffffL
+    val directoryOffset = tail.intAt(eocd + 16).toLong() and 0xffffffffL
+    if (directoryOffset + directorySize > size) return null //zip64 is not supported
+    val directory = read(directoryOffset, directorySize.toInt())
+    var position = 0
+    return List(count) {
+        if (directory.intAt(position) != CEN_SIGNATURE) return null
+        val nameLength = directory.shortAt(position + 28)
+        val name = String(directory, position + CEN_SIZE, nameLength, Charsets.UTF_8)
+        position += CEN_SIZE + nameLength + directory.shortAt(position + 30) + directory.shortAt(position + 32)
+        name
+    }
+}
+
+private fun JarFile.readNested(entry: JarEntry, offset: Long, length: Int) = getInputStream(entry).use { input ->
+    var remaining = offset
+    while (remaining > 0) {
+        val skipped = input.skip(remaining)
+        check(skipped > 0) { "Cannot skip to $offset of ${entry.name}" }
+        remaining -= skipped
+    }
+    ByteArray(length).also { DataInputStream(input).readFully(it) }
+}
+
+private fun ByteArray.shortAt(index: Int) = (this[index].toInt() and 0xff) or ((this[index + 1].toInt() and 0xff) shl 8)
+
+private fun ByteArray.intAt(index: Int) = shortAt(index) or (shortAt(index + 2) shl 16)
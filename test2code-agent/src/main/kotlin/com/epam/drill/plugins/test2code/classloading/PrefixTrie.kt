@@ -0,0 +1,58 @@
+/**
+ * Copyright 2020 - 2022 EPAM Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.epam.drill.plugins.test2code.classloading
+
+/**
+ * Matches class names against the package prefixes in a single pass over the name,
+ * without allocating the substrings of the name.
+ */
+class PrefixTrie(prefixes: Iterable<String>) {
+
+    private class Node {
+        val children = HashMap<Char, Node>()
+        var isTerminal = false
+    }
+
+    private val root = Node().apply {
+        prefixes.forEach { prefix ->
+            prefix.fold(this) { node, char -> node.children.getOrPut(char, ::Node) }.isTerminal = true
+        }
+    }
+
+    /**
+     * Check if one of the prefixes starts the name at the index
+     */
+    fun matches(name: String, startIndex: Int = 0): Boolean {
+        var node = root
+        for (index in startIndex until name.length) {
+            if (node.isTerminal) return true
+            node = node.children[name[index]] ?: return false
+        }
+        return node.isTerminal
+    }
+
+    /**
+     * Check if the path matches one of the prefixes or may be continued to match it, e.g. a parent directory
+     */
+    fun mayMatch(path: String, startIndex: Int = 0): Boolean {
+        var node = root
+        for (index in startIndex until path.length) {
+            if (node.isTerminal) return true
+            node = node.children[path[index]] ?: return false
+        }
+        return true
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright 2020 - 2022 EPAM Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.epam.drill.plugins.test2code
+
+import com.epam.drill.common.classloading.*
+import com.epam.drill.plugins.test2code.common.api.*
+import org.junit.jupiter.api.Timeout
+import kotlin.test.*
+
+class AstPipelineTest {
+    private val classNames = (0 until 1000).map { "foo/bar/Foo$it" }
+
+    @Test
+    fun `process - should send all scanned classes`() {
+        val sent = sendAll(partSize = 1)
+        assertEquals(classNames.toSet(), sent.flatten().map(AstEntity::className).toSet())
+        assertEquals(classNames.size, sent.sumOf { it.size })
+    }
+
+    @Test
+    fun `process - should coalesce parsed classes by size`() {
+        val partSize = newAstClass(classNames.first()).estimatedSize() * 100
+        val sent = sendAll(partSize)
+        assertEquals(classNames.size, sent.sumOf { it.size })
+        assertTrue(sent.dropLast(1).all { part -> part.sumOf(AstEntity::estimatedSize) >= partSize })
+        assertTrue(sent.size <= classNames.size / 90)
+    }
+
+    @Test
+    fun `process - should skip classes failed to parse`() {
+        val sent = mutableListOf<AstEntity>()
+        AstPipeline(parsers = 2, parse = { source ->
+            source.entityName().takeIf { it != classNames.first() }?.let(::newAstClass) ?: error("Failed")
+        }, send = { sent.addAll(it) }).process(::scan)
+        assertEquals(classNames.size - 1, sent.size)
+    }
+
+    @Test
+    @Timeout(10)
+    fun `process - should fail if the sender dies`() {
+        val pipeline = AstPipeline(parsers = 2, partSize = 1, parse = { newAstClass(it.entityName()) }, send = {
+            throw StackOverflowError()
+        })
+        val e = assertFailsWith<PipelineFailedException> { pipeline.process(::scan) }
+        assertTrue(e.cause is StackOverflowError)
+    }
+
+    private fun sendAll(partSize: Int): List<List<AstEntity>> = mutableListOf<List<AstEntity>>().also { sent ->
+        AstPipeline(
+            parsers = 4,
+            partSize = partSize,
+            parse = { newAstClass(it.entityName()) },
+            send = { sent.add(it) }
+        ).process(::scan)
+    }
+
+    private fun scan(consumer: (Set<EntitySource>) -> Unit) {
+        val buffer = mutableSetOf<EntitySource>()
+        classNames.chunked(50).forEach { chunk ->
+            chunk.mapTo(buffer, ::ClassSource)
+            consumer(buffer)
+            buffer.clear()
+        }
+    }
+}
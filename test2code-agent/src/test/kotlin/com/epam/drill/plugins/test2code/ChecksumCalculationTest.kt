@@ -18,6 +18,8 @@ package com.epam.drill.plugins.test2code
 import com.epam.drill.fixture.ast.*
 import com.epam.drill.fixture.ast.OverrideTest
 import com.epam.drill.plugins.test2code.checksum.calculateMethodsChecksums
+import com.epam.drill.plugins.test2code.checksum.methodsChecksums
+import org.jacoco.core.internal.instr.InstrSupport
 import org.junit.jupiter.api.Test
 import kotlin.test.assertEquals
 import kotlin.test.assertNotEquals
@@ -156,6 +158,29 @@ class OverrideTest {
     }
 }
 
+class SinglePassChecksumTest {
+
+    @Test
+    fun `single pass checksums should be equal to bytecode text ones`() {
+        listOf(
+            Build1::class,
+            Build2::class,
+            ConstructorTestBuild1::class,
+            ConstructorTestBuild2::class,
+            OverrideTest::class,
+            ChecksumCalculationTest::class,
+            String::class,
+            java.util.HashMap::class,
+        ).forEach {
+            val bytes = it.readBytes()
+            assertEquals(
+                calculateMethodsChecksums(bytes, it.getFullName()),
+                InstrSupport.classReaderFor(bytes).methodsChecksums()
+            )
+        }
+    }
+}
+
 private fun assertChecksum(
     methodName: String,
     build1: Map<String, String>,
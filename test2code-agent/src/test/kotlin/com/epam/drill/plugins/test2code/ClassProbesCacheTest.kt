@@ -0,0 +1,74 @@
+/**
+ * Copyright 2020 - 2022 EPAM Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.epam.drill.plugins.test2code
+
+import com.epam.drill.fixture.ast.*
+import org.jacoco.core.internal.data.CRC64
+import org.jacoco.core.internal.instr.InstrSupport
+import org.objectweb.asm.*
+import org.objectweb.asm.tree.*
+import kotlin.test.*
+
+class ClassProbesCacheTest {
+    private val bytes = Build1::class.readBytes()
+    private val classId = CRC64.classId(bytes)
+    private val className = Build1::class.getFullName()
+
+    @Test
+    fun `countProbes - should count the same probes from the class tree`() {
+        val expected = InstrSupport.classReaderFor(bytes).countProbes(className)
+        val classNode = ClassNode().also { InstrSupport.classReaderFor(bytes).accept(it, ClassReader.EXPAND_FRAMES) }
+        assertEquals(expected.count, classNode.countProbes())
+    }
+
+    @Test
+    fun `instrumented - should not count probes of the class not parsed yet`() {
+        val cache = ClassProbesCache(isEnabled = true)
+        assertNull(cache.instrumented(classId))
+    }
+
+    @Test
+    fun `instrumented - should reuse probes of the parsed class`() {
+        val cache = ClassProbesCache(isEnabled = true)
+        val expected = InstrSupport.classReaderFor(bytes).countProbes(className)
+        var counted = 0
+        repeat(2) {
+            val probes = cache.parsed(bytes) { counted++; InstrSupport.classReaderFor(bytes).countProbes(className) }
+            assertEquals(expected.methods.map { it.probes }, probes.methods.map { it.probes })
+        }
+        assertEquals(1, counted)
+        assertEquals(expected.count, cache.instrumented(classId))
+    }
+
+    @Test
+    fun `parsed - should not keep probes when disabled`() {
+        val cache = ClassProbesCache(isEnabled = false)
+        var counted = 0
+        repeat(2) { cache.parsed(bytes) { counted++; InstrSupport.classReaderFor(bytes).countProbes(className) } }
+        assertEquals(2, counted)
+        assertNull(cache.instrumented(classId))
+    }
+
+    @Test
+    fun `parsed - should evict the least recently used class`() {
+        val cache = ClassProbesCache(isEnabled = true, maxSize = 1)
+        val otherBytes = Build2::class.readBytes()
+        cache.parsed(bytes) { InstrSupport.classReaderFor(bytes).countProbes(className) }
+        cache.parsed(otherBytes) { InstrSupport.classReaderFor(otherBytes).countProbes(Build2::class.getFullName()) }
+        assertNull(cache.instrumented(classId))
+        assertNotNull(cache.instrumented(CRC64.classId(otherBytes)))
+    }
+}
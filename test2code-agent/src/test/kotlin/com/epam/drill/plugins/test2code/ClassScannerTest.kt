@@ -42,4 +42,17 @@ class ClassScannerTest {
         assertEquals(6, classCount)
         assertEquals(2, transferCount)
     }
-}
\ No newline at end of file
+
+    @Test
+    fun `check parallel class scan in several consumer call`() {
+        var classCount = 0
+        var transferCount = 0
+        val scanner = ClassLoadersScanner(listOf("com/example/fixture/classloading"), 5, isParallel = true) { classes ->
+            classCount += classes.size
+            transferCount++
+        }
+        scanner.scanClasses()
+        assertEquals(6, classCount)
+        assertEquals(2, transferCount)
+    }
+}
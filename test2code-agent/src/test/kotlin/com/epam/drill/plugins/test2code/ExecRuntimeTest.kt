@@ -17,12 +17,14 @@ package com.epam.drill.plugins.test2code
 
 import com.epam.drill.jacoco.AgentProbes
 import org.junit.jupiter.api.assertDoesNotThrow
+import java.util.concurrent.ConcurrentLinkedQueue
+import kotlin.concurrent.thread
 import kotlin.random.Random
 import kotlin.test.*
 
 
 class ExecRuntimeTest {
-    private val threadLocal = ThreadLocal<Array<ExecDatum?>>()
+    private val threadLocal = ThreadLocal<ExecData>()
     private val className = "foo/bar/Foo"
     private val testKey = TestKey("test", "id")
 
@@ -34,25 +36,34 @@ class ExecRuntimeTest {
     @Test
     fun `put - should put by existing index`() {
         val runtime = ExecRuntime {}
-        val probesByClasses = runtime.getOrPut(testKey) { arrayOfNulls(9) }
+        val probesByClasses = runtime.getOrPut(testKey) { ExecData(testKey) }
         runtime.put(7) { ExecDatum(1L, className, AgentProbes()) }
         assertNotNull(probesByClasses[7])
     }
 
     @Test
-    fun `put - not existing index`() {
+    fun `put - index beyond allocated pages`() {
         val runtime = ExecRuntime {}
-        val probesByClasses = runtime.getOrPut(testKey) { arrayOfNulls(5) }
+        val probesByClasses = runtime.getOrPut(testKey) { ExecData(testKey) }
         assertDoesNotThrow {
-            runtime.put(7) { ExecDatum(1L, className, AgentProbes()) }
+            runtime.put(70_000) { ExecDatum(1L, className, AgentProbes()) }
         }
-        assertEquals(5, probesByClasses.size)
+        assertNotNull(probesByClasses[70_000])
+        assertNull(probesByClasses[7])
+    }
+
+    @Test
+    fun `put - lazy runtime should not fill test data`() {
+        val runtime = ExecRuntime({}, isLazy = true)
+        val probesByClasses = runtime.getOrPut(testKey) { ExecData(testKey) }
+        runtime.put(7) { ExecDatum(1L, className, AgentProbes()) }
+        assertNull(probesByClasses[7])
     }
 
     @Test
     fun `collect - empty probes`() {
         val runtime = ExecRuntime {}
-        val probesByClasses = runtime.getOrPut(testKey) { arrayOfNulls(9) }
+        val probesByClasses = runtime.getOrPut(testKey) { ExecData(testKey) }
         runtime.put(7) { ExecDatum(1L, className, AgentProbes()) }
         assertNotNull(probesByClasses[7])
         assertTrue { runtime.collect().none() }
@@ -104,8 +115,65 @@ class ExecRuntimeTest {
         assertEquals(1, secondData.byClass(className).probes.values.count { it })
     }
 
+    @Test
+    fun `collectChanged - should collect only classes touched since the previous collection`() {
+        val runtime = ExecRuntime {}
+        runtime.fillProbe()
+        threadLocal.get()[0]?.probes?.set(1)
+        assertTrue { runtime.collectChanged().any() }
+        assertTrue { runtime.collectChanged().none() }
+        threadLocal.get()[0]?.probes?.set(2)
+        assertEquals(2, runtime.collectChanged().byClass(className).probes.values.count { it })
+    }
+
+    @Test
+    fun `isDirtyTracking - should be switched off by the instrumenter with inline probes`() {
+        val provider = SimpleSessionProbeArrayProvider()
+        DrillInstrumenter(provider, inlineProbes = false)
+        provider.start("default", false)
+        assertTrue { provider.runtimes.getValue("default").isDirtyTracking }
+        DrillInstrumenter(provider, inlineProbes = true)
+        provider.start("inline", false)
+        provider.start("global", true)
+        (provider.runtimes.values + provider.global!!.second).forEach { assertFalse(it.isDirtyTracking) }
+        provider.cancelAll()
+    }
+
+    @Test
+    fun `delta - should return only probes set since the previous call`() {
+        val datum = ExecDatum(1L, className, AgentProbes(5))
+        assertNull(datum.delta())
+        datum.probes.set(1)
+        assertEquals(listOf(1), datum.delta()?.probes?.values?.trueIndices())
+        assertNull(datum.delta())
+        datum.probes.set(3)
+        assertEquals(listOf(3), datum.delta()?.probes?.values?.trueIndices())
+        assertEquals(2, datum.probes.values.count { it })
+    }
+
+    @Test
+    fun `delta - concurrent calls should send every probe once`() {
+        val datum = ExecDatum(1L, className, AgentProbes(10_000))
+        val deltas = ConcurrentLinkedQueue<ExecDatum>()
+        val threads = (0 until 4).map { part ->
+            thread {
+                (part until 10_000 step 4).forEach {
+                    datum.probes.set(it)
+                    datum.delta()?.let(deltas::add)
+                }
+            }
+        }
+        threads.forEach(Thread::join)
+        datum.delta()?.let(deltas::add)
+        val sent = deltas.flatMap { it.probes.values.trueIndices() }
+        assertEquals(10_000, sent.size)
+        assertEquals(10_000, sent.toSet().size)
+    }
+
+    private fun BooleanArray.trueIndices() = indices.filter { this[it] }
+
     private fun ExecRuntime.fillProbe() {
-        val value = getOrPut(testKey) { arrayOfNulls(5) }
+        val value = getOrPut(testKey) { ExecData(testKey) }
         threadLocal.set(value)
         put(0) { (testName, _) -> ExecDatum(1L, className, AgentProbes(5), testName) }
     }
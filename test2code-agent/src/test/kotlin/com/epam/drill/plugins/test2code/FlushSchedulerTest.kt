@@ -0,0 +1,82 @@
+/**
+ * Copyright 2020 - 2022 EPAM Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.epam.drill.plugins.test2code
+
+import com.epam.drill.jacoco.AgentProbes
+import kotlinx.coroutines.*
+import java.util.concurrent.*
+import kotlin.concurrent.*
+import kotlin.test.*
+
+class FlushSchedulerTest {
+    private val className = "foo/bar/Foo"
+
+    private val scheduler = FlushScheduler()
+
+    @AfterTest
+    fun close() {
+        scheduler.close()
+    }
+
+    @Test
+    fun `flushAll - should flush all registered runtimes in one pass`() {
+        val flushed = mutableListOf<String>()
+        val runtimes = listOf("first", "second").map { name ->
+            GlobalExecRuntime(name) { data ->
+                synchronized(flushed) { data.forEach { flushed.add(it.testName) } }
+            }.apply {
+                put(0) { (testName, testId) -> ExecDatum(1L, className, AgentProbes(5), testName, testId) }
+                get(0)?.set(1)
+            }
+        }
+        runtimes.forEach(scheduler::register)
+        runBlocking { scheduler.flushAll() }
+        assertEquals(setOf("first", "second"), flushed.toSet())
+        runtimes.forEach(Runtime::close)
+    }
+
+    @Test
+    fun `flushAll - should skip closed runtimes`() {
+        var flushed = false
+        val runtime = GlobalExecRuntime("test") { flushed = true }
+        scheduler.register(runtime)
+        runtime.close()
+        runBlocking { scheduler.flushAll() }
+        assertFalse(flushed)
+    }
+
+    @Test
+    fun `close - should wait for the flush in progress`() {
+        val started = CountDownLatch(1)
+        val released = CountDownLatch(1)
+        var flushes = 0
+        val runtime = GlobalExecRuntime("test") {
+            started.countDown()
+            released.await()
+            flushes++
+        }
+        val flush = thread { runtime.flush() }
+        started.await()
+        val close = thread { runtime.close() }
+        close.join(100)
+        assertTrue(close.isAlive)
+        released.countDown()
+        close.join()
+        flush.join()
+        runtime.flush()
+        assertEquals(1, flushes)
+    }
+}
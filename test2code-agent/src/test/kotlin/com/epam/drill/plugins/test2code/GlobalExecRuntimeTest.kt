@@ -30,9 +30,10 @@ class GlobalExecRuntimeTest {
     }
 
     @Test
-    fun `put - not existing index`() {
+    fun `put - index beyond allocated pages`() {
         val runtime = GlobalExecRuntime("test") {}
-        assertDoesNotThrow { runtime.put(MAX_CLASS_COUNT + 1) { ExecDatum(1L, className, AgentProbes(5)) } }
+        assertDoesNotThrow { runtime.put(50_001) { ExecDatum(1L, className, AgentProbes(5)) } }
+        assertNotNull(runtime.get(50_001))
     }
 
     @Test
@@ -47,6 +48,16 @@ class GlobalExecRuntimeTest {
         assertEquals("test", probesByClass.testName)
     }
 
+    @Test
+    fun `collectChanged - should collect only touched classes`() {
+        val runtime = GlobalExecRuntime("test") {}
+        runtime.put(0) { ExecDatum(1L, className, AgentProbes(5)) }
+        runtime.put(1) { ExecDatum(2L, "foo/bar/Bar", AgentProbes(5)) }
+        runtime.get(1)?.set(2)
+        assertEquals(listOf("foo/bar/Bar"), runtime.collectChanged().map { it.name }.toList())
+        assertTrue { runtime.collectChanged().none() }
+    }
+
     @Test
     fun `collect - empty probes`() {
         val runtime = GlobalExecRuntime("test") {}
@@ -22,7 +22,10 @@ import com.epam.drill.instrumentation.data.InvokeCycles
 import com.epam.drill.plugins.test2code.InstrumentationForTest.Companion.sessionId
 import com.epam.drill.fixture.ClassWithLoop
 import com.epam.drill.fixture.EmptyBody
+import com.epam.drill.fixture.StraightLine
 import com.epam.drill.fixture.TestTarget
+import com.epam.drill.fixture.WithBranches
+import com.epam.drill.fixture.WithTryCatch
 import org.junit.jupiter.api.assertAll
 import kotlin.test.Test
 import kotlin.test.assertEquals
@@ -37,6 +40,12 @@ class InstrumentationTest {
         assertTrue { instrumentedBytes.count() > instrumentation.originalBytes.count() }
     }
 
+    @Test
+    fun `retransformed class should keep its index`() {
+        val instrumentation = InstrumentationForTest(TestTarget::class)
+        assertTrue { instrumentation.instrumentClass().contentEquals(instrumentation.instrumentClass()) }
+    }
+
     @Test
     fun `should provide coverage with the instrumented class of empty body`() {
         val counter = InstrumentationForTest(EmptyBody::class).collectCoverage()
@@ -51,6 +60,20 @@ class InstrumentationTest {
         assertEquals(0, counter?.missedCount)
     }
 
+    @Test
+    fun `should provide coverage with inline probes for the instrumented class with loops`() {
+        val counter = InstrumentationForTest(ClassWithLoop::class, inlineProbes = true).collectCoverage()
+        assertEquals(51, counter?.coveredCount)
+        assertEquals(0, counter?.missedCount)
+    }
+
+    @Test
+    fun `should provide coverage with inline probes for run with the instrumented class`() {
+        val counter = InstrumentationForTest(TestTarget::class, inlineProbes = true).collectCoverage()
+        assertEquals(39, counter?.coveredCount)
+        assertEquals(2, counter?.missedCount)
+    }
+
     @Test
     fun `should provide coverage for run with the instrumented class`() {
         val counter = InstrumentationForTest(TestTarget::class).collectCoverage()
@@ -58,6 +81,33 @@ class InstrumentationTest {
         assertEquals(2, counter?.missedCount)
     }
 
+    @Test
+    fun `should provide coverage with the instrumented class of straight-line methods`() {
+        for (inlineProbes in listOf(false, true)) {
+            val counter = InstrumentationForTest(StraightLine::class, inlineProbes).collectCoverage()
+            assertEquals(17, counter?.coveredCount)
+            assertEquals(0, counter?.missedCount)
+        }
+    }
+
+    @Test
+    fun `should provide coverage with the instrumented class of methods with branches`() {
+        for (inlineProbes in listOf(false, true)) {
+            val counter = InstrumentationForTest(WithBranches::class, inlineProbes).collectCoverage()
+            assertEquals(46, counter?.coveredCount)
+            assertEquals(0, counter?.missedCount)
+        }
+    }
+
+    @Test
+    fun `should provide coverage with the instrumented class of methods with try-catch`() {
+        for (inlineProbes in listOf(false, true)) {
+            val counter = InstrumentationForTest(WithTryCatch::class, inlineProbes).collectCoverage()
+            assertEquals(18, counter?.coveredCount)
+            assertEquals(0, counter?.missedCount)
+        }
+    }
+
     @Test
     fun `should provide coverage with the Java instrumented with empty methods`() {
         val counter = InstrumentationForTest(ClassWithVoid::class).collectCoverage()
@@ -0,0 +1,152 @@
+/**
+ * Copyright 2020 - 2022 EPAM Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.epam.drill.plugins.test2code
+
+import com.epam.drill.plugins.test2code.classloading.ClassPathScanner
+import com.epam.drill.plugins.test2code.classloading.nestedEntryNames
+import com.epam.drill.plugins.test2code.classloading.zipEntryNames
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.util.jar.JarFile
+import java.util.jar.JarOutputStream
+import java.util.zip.CRC32
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+import kotlin.test.*
+
+class NestedJarScanTest {
+    private val classBytes = NestedJarScanTest::class.readBytes()
+
+    private val matching = "foo/bar/Baz.class"
+
+    private val other = "foo/qux/Quux.class"
+
+    @Test
+    fun `nestedEntryNames - should read names of stored jar`() {
+        val file = outerJar("lib/nested.jar" to jar(matching, other))
+        assertEquals(listOf(matching, other), file.nestedEntryNames("lib/nested.jar"))
+        assertEquals(listOf("foo/bar/Baz"), scan(file))
+    }
+
+    @Test
+    fun `scan - should skip stored jar without matching entries`() {
+        val file = outerJar("lib/match.jar" to jar(matching), "lib/other.jar" to jar(other))
+        assertEquals(listOf(other), file.nestedEntryNames("lib/other.jar"))
+        assertEquals(listOf("foo/bar/Baz"), scan(file))
+    }
+
+    @Test
+    fun `scan - should skip jar by the names of its central directory`() {
+        val nested = jar(matching).also { bytes ->
+            val name = matching.toByteArray()
+            val directory = bytes.indexOf(0x50, 0x4b, 1, 2)
+            assertEquals(matching, String(bytes, directory + 46, name.size))
+            "foo/qux/Baz.class".toByteArray().copyInto(bytes, directory + 46)
+        }
+        assertEquals(listOf("foo/qux/Baz.class"), nested.zipEntryNames())
+        val file = outerJar("lib/nested.jar" to nested)
+        assertEquals(emptyList(), scan(file, isParallel = false))
+        assertEquals(emptyList(), scan(file, isParallel = true))
+    }
+
+    @Test
+    fun `scan - should not skip deflated jar`() {
+        val file = outerJar("lib/nested.jar" to jar(matching), method = ZipEntry.DEFLATED)
+        assertNull(file.nestedEntryNames("lib/nested.jar"))
+        assertEquals(listOf("foo/bar/Baz"), scan(file))
+    }
+
+    @Test
+    fun `nestedEntryNames - should find central directory of jar with comment`() {
+        val file = outerJar("lib/nested.jar" to jar(matching, comment = "nested jar ".repeat(100)))
+        assertEquals(listOf(matching), file.nestedEntryNames("lib/nested.jar"))
+        assertEquals(listOf("foo/bar/Baz"), scan(file))
+    }
+
+    @Test
+    fun `scan - should scan truncated jar by its local entries`() {
+        val nested = jar(matching).let { it.copyOf(it.size - 30) }
+        val file = outerJar("lib/nested.jar" to nested)
+        assertNull(runCatching { file.nestedEntryNames("lib/nested.jar") }.getOrNull())
+        assertEquals(listOf("foo/bar/Baz"), scan(file))
+    }
+
+    @Test
+    fun `scan - should scan jar with corrupt central directory`() {
+        val nested = jar(matching).also { bytes ->
+            bytes[bytes.indexOf(0x50, 0x4b, 1, 2) + 2] = 0
+        }
+        val file = outerJar("lib/nested.jar" to nested)
+        assertNull(runCatching { file.nestedEntryNames("lib/nested.jar") }.getOrNull())
+        assertNull(nested.zipEntryNames())
+        assertEquals(listOf("foo/bar/Baz"), scan(file))
+    }
+
+    /**
+     * Scan in both modes, they must find the same classes
+     */
+    private fun scan(file: File): List<String> = scan(file, isParallel = true).also {
+        assertEquals(it, scan(file, isParallel = false))
+    }
+
+    private fun scan(file: File, isParallel: Boolean): List<String> {
+        val classes = mutableListOf<String>()
+        ClassPathScanner(listOf("foo/bar"), 100, isParallel) { sources ->
+            sources.mapTo(classes) { it.entityName() }
+        }.run {
+            scanFile(file)
+            transferBuffer()
+        }
+        return classes.sorted()
+    }
+
+    /**
+     * Find the last signature of the zip record
+     */
+    private fun ByteArray.indexOf(vararg signature: Byte): Int = (size - signature.size downTo 0).first { i ->
+        signature.indices.all { this[i + it] == signature[it] }
+    }
+
+    private fun File.nestedEntryNames(name: String) = JarFile(this).use { it.nestedEntryNames(it.getJarEntry(name)) }
+
+    private fun jar(vararg names: String, comment: String? = null): ByteArray = ByteArrayOutputStream().also { bytes ->
+        JarOutputStream(bytes).use { jar ->
+            comment?.let(jar::setComment)
+            names.forEach { jar.putEntry(it, classBytes, ZipEntry.DEFLATED) }
+        }
+    }.toByteArray()
+
+    private fun outerJar(vararg nested: Pair<String, ByteArray>, method: Int = ZipEntry.STORED): File =
+        File.createTempFile("outer", ".jar").apply {
+            deleteOnExit()
+            JarOutputStream(outputStream()).use { jar ->
+                nested.forEach { (name, bytes) -> jar.putEntry(name, bytes, method) }
+            }
+        }
+
+    private fun ZipOutputStream.putEntry(name: String, bytes: ByteArray, method: Int) {
+        putNextEntry(ZipEntry(name).also { entry ->
+            entry.method = method
+            if (method == ZipEntry.STORED) {
+                entry.size = bytes.size.toLong()
+                entry.compressedSize = bytes.size.toLong()
+                entry.crc = CRC32().apply { update(bytes) }.value
+            }
+        })
+        write(bytes)
+        closeEntry()
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright 2020 - 2022 EPAM Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.epam.drill.plugins.test2code
+
+import kotlin.test.*
+
+class PagedArrayTest {
+
+    @Test
+    fun `get - not allocated index`() {
+        val array = PagedArray<String>()
+        assertNull(array[100_000])
+    }
+
+    @Test
+    fun `set - should allocate pages on demand`() {
+        val array = PagedArray<String>()
+        array[3] = "first"
+        array[100_000] = "second"
+        assertEquals("first", array[3])
+        assertEquals("second", array[100_000])
+        assertEquals(listOf("first", "second"), array.asSequence().toList())
+    }
+
+    @Test
+    fun `getOrPut - should keep existing value`() {
+        val array = PagedArray<String>()
+        assertEquals("first", array.getOrPut(5) { "first" })
+        assertEquals("first", array.getOrPut(5) { "second" })
+    }
+
+    @Test
+    fun `forEachIndexed - should visit set values by index`() {
+        val array = PagedArray<String>()
+        array[2_000] = "value"
+        val visited = mutableMapOf<Int, String>()
+        array.forEachIndexed { index, value -> value?.let { visited[index] = it } }
+        assertEquals(mapOf(2_000 to "value"), visited)
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright 2020 - 2022 EPAM Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.epam.drill.plugins.test2code
+
+import com.epam.drill.plugins.test2code.classloading.PrefixTrie
+import kotlin.test.*
+
+class PrefixTrieTest {
+    private val trie = PrefixTrie(listOf("com/example/foo", "org/bar"))
+
+    @Test
+    fun `matches - should match names starting with a prefix`() {
+        assertTrue { trie.matches("com/example/foo/Foo.class") }
+        assertTrue { trie.matches("org/bar/Bar.class") }
+        assertTrue { trie.matches("BOOT-INF/classes/org/bar/Bar.class", "BOOT-INF/classes/".length) }
+        assertFalse { trie.matches("com/example/Foo.class") }
+        assertFalse { trie.matches("org/baz/Baz.class") }
+        assertFalse { trie.matches("com/example") }
+    }
+
+    @Test
+    fun `mayMatch - should accept parent directories of a prefix`() {
+        assertTrue { trie.mayMatch("com/") }
+        assertTrue { trie.mayMatch("com/example/") }
+        assertTrue { trie.mayMatch("com/example/foo/bar/") }
+        assertFalse { trie.mayMatch("com/other/") }
+        assertFalse { trie.mayMatch("net/") }
+    }
+
+    @Test
+    fun `matches - empty prefix should match everything`() {
+        assertTrue { PrefixTrie(listOf("")).matches("any/Class.class") }
+        assertFalse { PrefixTrie(emptyList()).matches("any/Class.class") }
+    }
+}
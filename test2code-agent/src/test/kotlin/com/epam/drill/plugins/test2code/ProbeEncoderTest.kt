@@ -0,0 +1,121 @@
+/**
+ * Copyright 2020 - 2022 EPAM Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.epam.drill.plugins.test2code
+
+import com.epam.drill.jacoco.AgentProbes
+import com.github.luben.zstd.*
+import java.io.*
+import java.util.*
+import kotlin.test.*
+
+class ProbeEncoderTest {
+
+    @Test
+    fun `encode - should write header and classes`() {
+        val probes = AgentProbes(10).apply {
+            set(0)
+            set(9)
+        }
+        val datum = ExecDatum(1L, "foo/bar/Foo", probes, "test", "id")
+        val message = ProbeEncoder().encode("session", listOf(datum))
+        assertEquals(BINARY_PROBES_MARKER, message.first())
+        val (flags, input) = message.decode()
+        assertEquals(0, flags)
+        val compressed = DataInputStream(ZstdInputStream(input))
+        assertEquals("session", compressed.readUTF())
+        assertEquals(1, compressed.readInt())
+        assertEquals(1L, compressed.readLong())
+        assertEquals("foo/bar/Foo", compressed.readUTF())
+        assertEquals("test", compressed.readUTF())
+        assertEquals("id", compressed.readUTF())
+        assertEquals(10, compressed.readInt())
+        val bits = BitSet.valueOf(ByteArray(2).also(compressed::readFully))
+        assertEquals(listOf(0, 9, 10), bits.stream().toArray().toList())
+    }
+
+    @Test
+    fun `encode - should reuse the encoder`() {
+        val encoder = ProbeEncoder()
+        val datum = ExecDatum(1L, "foo/bar/Foo", AgentProbes(3))
+        val first = encoder.encode("session", listOf(datum))
+        assertEquals(first, encoder.encode("session", listOf(datum)))
+    }
+
+    @Test
+    fun `encode - should compress with the dictionary`() {
+        val dictionary = ProbeDictionary.of(listOf("foo/bar/Foo", "foo/bar/Bar"))
+        assertEquals("foo/bar/Bar\nfoo/bar/Foo\n", String(dictionary.bytes))
+        probeDictionary = dictionary
+        try {
+            val datum = ExecDatum(1L, "foo/bar/Foo", AgentProbes(3))
+            val (flags, input) = ProbeEncoder().encode("session", listOf(datum)).decode()
+            assertEquals(PROBES_DICTIONARY, flags)
+            assertEquals(dictionary.id, input.readInt())
+            val compressed = ZstdInputStream(input).apply { setDict(ZstdDictDecompress(dictionary.bytes)) }
+            assertEquals("session", DataInputStream(compressed).readUTF())
+        } finally {
+            probeDictionary = null
+        }
+    }
+
+    @Test
+    fun `dictionary - should take loaded classes first`() {
+        val classNames = (0 until 20_000).map { "a/Class$it" }
+        val dictionary = String(ProbeDictionary.of(listOf("z/Loaded", "a/Class0"), classNames).bytes)
+        assertTrue(dictionary.endsWith("z/Loaded\n"))
+        assertEquals(1, dictionary.lines().count { it == "a/Class0" })
+        assertTrue(dictionary.length <= 110 shl 10)
+    }
+
+    @Test
+    fun `encode - should send names once per session`() {
+        val encoder = ProbeEncoder()
+        val names = ProbeNames()
+        val first = ExecDatum(1L, "foo/bar/Foo", AgentProbes(3), "test", "id")
+        val second = ExecDatum(2L, "foo/bar/Bar", AgentProbes(3), "test", "id")
+        encoder.encode("session", listOf(first), names).decode().let { (flags, input) ->
+            assertEquals(PROBES_INTERNED, flags)
+            val compressed = DataInputStream(ZstdInputStream(input))
+            assertEquals("session", compressed.readUTF())
+            assertEquals(1, compressed.readInt())
+            assertEquals(1L, compressed.readLong())
+            assertEquals("foo/bar/Foo", compressed.readUTF())
+            assertEquals(1, compressed.readInt())
+            assertEquals(0, compressed.readInt())
+        }
+        encoder.encode("session", listOf(first, second), names).decode().let { (_, input) ->
+            val compressed = DataInputStream(ZstdInputStream(input))
+            assertEquals("session", compressed.readUTF())
+            assertEquals(1, compressed.readInt())
+            assertEquals(2L, compressed.readLong())
+            assertEquals("foo/bar/Bar", compressed.readUTF())
+            assertEquals(0, compressed.readInt())
+            assertEquals(2, compressed.readInt())
+            assertEquals(1L, compressed.readLong())
+            assertEquals(0, compressed.readInt())
+        }
+    }
+
+    /**
+     * Check the header and read the flags of the message
+     */
+    private fun String.decode(): Pair<Int, DataInputStream> {
+        val input = DataInputStream(ByteArrayInputStream(Base64.getDecoder().decode(substring(1))))
+        val header = ByteArray(BINARY_PROBES_HEADER.size).also(input::readFully)
+        assertTrue { header.contentEquals(BINARY_PROBES_HEADER) }
+        return input.readByte().toInt() to input
+    }
+}
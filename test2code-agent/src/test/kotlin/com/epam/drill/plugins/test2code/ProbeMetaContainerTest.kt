@@ -41,8 +41,19 @@ class ProbeMetaContainerTest {
     fun `addDescriptor - with filled local runtime`() {
         val probeMetaContainer = ProbeMetaContainer()
         val local = ExecRuntime {}
-        val execDatum = local.getOrPut(TestKey("test", "id")) { arrayOfNulls(MAX_CLASS_COUNT) }
+        val testKey = TestKey("test", "id")
+        val execDatum = local.getOrPut(testKey) { ExecData(testKey) }
         probeMetaContainer.addDescriptor(0, probeDescriptor, null, listOf(local))
-        assertEquals(MAX_CLASS_COUNT, execDatum.size)
+        assertEquals("test", execDatum[0]?.testName)
+    }
+
+    @Test
+    fun `addDescriptor - should keep runtime data of retransformed class`() {
+        val probeMetaContainer = ProbeMetaContainer()
+        val global = GlobalExecRuntime("test") {}
+        probeMetaContainer.addDescriptor(0, probeDescriptor, global, emptyList())
+        global.get(0)?.set(1)
+        probeMetaContainer.addDescriptor(0, ProbeDescriptor(1L, "foo/bar/Foo", 4), global, emptyList())
+        assertEquals(true, global.get(0)?.get(1))
     }
 }
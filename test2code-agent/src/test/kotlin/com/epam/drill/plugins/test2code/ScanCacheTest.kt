@@ -0,0 +1,108 @@
+/**
+ * Copyright 2020 - 2022 EPAM Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.epam.drill.plugins.test2code
+
+import com.epam.drill.plugins.test2code.common.api.*
+import java.io.*
+import java.nio.file.*
+import java.util.jar.*
+import kotlin.test.*
+
+class ScanCacheTest {
+    private val cacheDir = Files.createTempDirectory("scan-cache").toFile()
+    private val classesDir = Files.createTempDirectory("classes").toFile()
+
+    @AfterTest
+    fun deleteDirs() {
+        cacheDir.deleteRecursively()
+        classesDir.deleteRecursively()
+    }
+
+    @Test
+    fun `getOrPut - should not scan the same root twice`() {
+        File(classesDir, "Foo.class").writeBytes(byteArrayOf(1, 2, 3))
+        val astEntities = listOf(AstEntity("com/example", "Foo", mutableListOf()))
+        var scans = 0
+        val scan = { astEntities.also { scans++ } }
+        assertEquals(astEntities, ScanCache(cacheDir, listOf("com/example")).getOrPut(classesDir.toURI(), scan))
+        assertEquals(astEntities, ScanCache(cacheDir, listOf("com/example")).getOrPut(classesDir.toURI(), scan))
+        assertEquals(1, scans)
+    }
+
+    @Test
+    fun `getOrPut - should scan changed root`() {
+        val classFile = File(classesDir, "Foo.class").apply { writeBytes(byteArrayOf(1, 2, 3)) }
+        var scans = 0
+        val scan = { emptyList<AstEntity>().also { scans++ } }
+        ScanCache(cacheDir, listOf("com/example")).getOrPut(classesDir.toURI(), scan)
+        classFile.writeBytes(byteArrayOf(1, 2, 3, 4))
+        ScanCache(cacheDir, listOf("com/example")).getOrPut(classesDir.toURI(), scan)
+        ScanCache(cacheDir, listOf("com/other")).getOrPut(classesDir.toURI(), scan)
+        assertEquals(3, scans)
+    }
+
+    @Test
+    fun `getOrPut - should scan root with changed class path jar`() {
+        val lib = File(classesDir, "lib.jar").apply { writeJar(entries = mapOf("Foo.class" to byteArrayOf(1))) }
+        val root = File(classesDir, "app.jar").apply { writeJar(classPath = "lib.jar") }
+        var scans = 0
+        val scan = { emptyList<AstEntity>().also { scans++ } }
+        ScanCache(cacheDir, listOf("com/example")).getOrPut(root.toURI(), scan)
+        ScanCache(cacheDir, listOf("com/example")).getOrPut(root.toURI(), scan)
+        lib.writeJar(entries = mapOf("Foo.class" to byteArrayOf(2)))
+        ScanCache(cacheDir, listOf("com/example")).getOrPut(root.toURI(), scan)
+        assertEquals(2, scans)
+    }
+
+    @Test
+    fun `getOrPut - should scan root cached by another parser version`() {
+        File(classesDir, "Foo.class").writeBytes(byteArrayOf(1, 2, 3))
+        var scans = 0
+        val scan = { emptyList<AstEntity>().also { scans++ } }
+        ScanCache(cacheDir, listOf("com/example"), version = "1").getOrPut(classesDir.toURI(), scan)
+        ScanCache(cacheDir, listOf("com/example"), version = "2").getOrPut(classesDir.toURI(), scan)
+        assertEquals(2, scans)
+    }
+
+    @Test
+    fun `getOrPut - should evict least recently used entries`() {
+        val roots = (1..3).map { i ->
+            Files.createTempDirectory(classesDir.toPath(), "root").toFile().also {
+                File(it, "Foo.class").writeBytes(byteArrayOf(i.toByte()))
+            }
+        }
+        val astEntities = listOf(AstEntity("com/example", "Foo", mutableListOf()))
+        val entries = { cacheDir.listFiles { file -> file.extension == "ast" }.orEmpty() }
+        ScanCache(cacheDir, listOf("com/example")).getOrPut(roots.first().toURI()) { astEntities }
+        val cache = ScanCache(cacheDir, listOf("com/example"), maxSize = entries().single().length())
+        roots.drop(1).forEach { cache.getOrPut(it.toURI()) { astEntities } }
+        assertEquals(1, entries().size)
+    }
+
+    private fun File.writeJar(classPath: String? = null, entries: Map<String, ByteArray> = emptyMap()) {
+        val manifest = Manifest().apply {
+            mainAttributes[Attributes.Name.MANIFEST_VERSION] = "1.0"
+            classPath?.let { mainAttributes[Attributes.Name.CLASS_PATH] = it }
+        }
+        JarOutputStream(outputStream(), manifest).use { jar ->
+            entries.forEach { (name, bytes) ->
+                jar.putNextEntry(JarEntry(name))
+                jar.write(bytes)
+                jar.closeEntry()
+            }
+        }
+    }
+}
@@ -25,7 +25,7 @@ import java.io.FileOutputStream
 import kotlin.reflect.*
 
 
-class InstrumentationForTest(kClass: KClass<*>) {
+class InstrumentationForTest(kClass: KClass<*>, inlineProbes: Boolean = false) {
 
     companion object {
         const val sessionId = "xxx"
@@ -44,7 +44,7 @@ class InstrumentationForTest(kClass: KClass<*>) {
 
     object TestProbeArrayProvider : SimpleSessionProbeArrayProvider(instrContextStub)
 
-    val instrumenter = DrillInstrumenter(TestProbeArrayProvider)
+    val instrumenter = DrillInstrumenter(TestProbeArrayProvider, inlineProbes)
 
     val memoryClassLoader = MemoryClassLoader()
 
@@ -87,10 +87,10 @@ class InstrumentationForTest(kClass: KClass<*>) {
         val testKey = TestKey(instrContextStub[DRIlL_TEST_NAME_HEADER] ?: "unspecified", "")
         val execRuntime = runtimes[sessionId]
         if (execRuntime != null) {
-            val execDatum = execRuntime.getOrPut(testKey) { arrayOfNulls<ExecDatum>(MAX_CLASS_COUNT).apply { fillFromMeta(testKey) } }
-            requestThreadLocal.set(execDatum)
+            val execDatum = execRuntime.getOrPut(testKey) { newExecData(testKey) }
+            bindRequest(execDatum)
         } else {
-            requestThreadLocal.remove()
+            unbindRequest()
         }
     }
 